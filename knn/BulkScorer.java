@@ -0,0 +1,164 @@
+package project_2;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*
+    Scores every row of a (large) data file w/ one published KNNModel
+    and writes "id,prediction" per row to an output file, in input order.
+
+    Three stages run at the same time:
+        read   - a reader thread streams the file in chunks of CHUNK_ROWS lines
+        score  - a pool parses each chunk into DataC rows (same classPos /
+                 "classification" / "regression" handling as DataSetUp)
+                 and predicts them
+        write  - the calling thread writes finished chunks in order
+    Chunks wait for the writer in a queue of at most maxChunks, so the
+    reader stops when scoring or writing falls behind and memory stays
+    at about maxChunks * CHUNK_ROWS rows however big the file is.
+
+    Row ids are line numbers starting at 1, like DataSetUp. Blank lines
+    are skipped.
+ */
+public class BulkScorer {
+
+    static final int CHUNK_ROWS = 4096;
+
+    private final KNNModel model;
+    private final String classPos;
+    private final String clOrReg;
+    private final int parallelism;
+    private final int maxChunks;
+
+    private long rows;
+
+    public BulkScorer(KNNModel model, String classPos, int parallelism) {
+        this.model = model;
+        this.classPos = classPos;
+        this.clOrReg = model.isClassification() ? "classification" : "regression";
+        this.parallelism = Math.max(1, parallelism);
+        this.maxChunks = 2 * this.parallelism;
+    }
+
+    /*
+        Scores inFile into outFile, returns the number of rows scored
+     */
+    public long score(String inFile, String outFile) throws IOException {
+        BlockingQueue<Future<String>> chunks = new ArrayBlockingQueue<>(maxChunks);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        rows = 0;
+
+        Thread reader = new Thread(() -> read(inFile, chunks, pool), "bulk-score-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(outFile), StandardCharsets.UTF_8)) {
+            while (true) {
+                String out = chunks.take().get();
+                if (out == null) {
+                    break;      //end of input
+                }
+                writer.write(out);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("bulk scoring interrupted");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("bulk scoring failed", cause);
+        }
+        finally {
+            reader.interrupt();
+            pool.shutdownNow();
+        }
+
+        return rows;
+    }
+
+    /*
+        Reader stage: hands chunks of lines to the pool, blocks while
+        maxChunks are waiting to be written. Ends w/ a null chunk, or
+        w/ a failed one if the file can not be read.
+     */
+    private void read(String inFile, BlockingQueue<Future<String>> chunks, ForkJoinPool pool) {
+        try {
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(inFile), StandardCharsets.UTF_8)) {
+                int lineNo = 0;
+                List<String> lines = new ArrayList<>(CHUNK_ROWS);
+                int firstId = 1;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNo++;
+                    if (lines.isEmpty()) {
+                        firstId = lineNo;
+                    }
+                    lines.add(line);
+                    if (lines.size() == CHUNK_ROWS) {
+                        submit(lines, firstId, chunks, pool);
+                        lines = new ArrayList<>(CHUNK_ROWS);
+                    }
+                }
+                if (!lines.isEmpty()) {
+                    submit(lines, firstId, chunks, pool);
+                }
+                chunks.put(CompletableFuture.completedFuture(null));
+            }
+            catch (IOException e) {
+                CompletableFuture<String> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                chunks.put(failed);
+            }
+        }
+        catch (InterruptedException e) {
+            //writer stopped
+        }
+    }
+
+    private void submit(List<String> lines, int firstId, BlockingQueue<Future<String>> chunks,
+                        ForkJoinPool pool) throws InterruptedException {
+        chunks.put(pool.submit(() -> scoreChunk(lines, firstId)));
+    }
+
+    /*
+        Score stage: parses and predicts one chunk, returns its output lines
+     */
+    private String scoreChunk(List<String> lines, int firstId) {
+        StringBuilder out = new StringBuilder(lines.size() * 16);
+        int scored= 0;
+        for (int i= 0; i< lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            DataC row = new DataC(line, firstId + i, classPos, clOrReg);
+            out.append(firstId + i).append(',').append(model.classify(row.getFeatures())).append('\n');
+            scored++;
+        }
+        synchronized (this) {
+            rows += scored;
+        }
+        return out.toString();
+    }
+}
@@ -1,8 +1,10 @@
 package project_2;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
+import java.util.stream.IntStream;
 
 /*
     Class w/ static methods to give
@@ -12,6 +14,12 @@ import java.util.Random;
     Both methods return a reduced set of new DataC objects
     with the feature vectors corresponding to the means
     and medoids, respectively.
+
+    k-means uses Hamerly's triangle inequality bounds (one upper and
+    one lower bound per row), so after the first few iterations most
+    rows are skipped w/o computing any distance. A row that is scanned
+    tries the means closest to its current mean first and stops once
+    the rest are provably farther than the nearest found so far.
  */
 public class Cluster {
 
@@ -19,82 +27,188 @@ public class Cluster {
 
     public static DataC[] kMeansClusters(DataC[] dataSet, int k) {
         //k is the number of clusters not the k from KNN
-        //double[] means =  new double[k];
-        double[][] means = new double[k][dataSet[0].getFeatures().length];
-        double[][] newMeans =  new double[k][dataSet[0].getFeatures().length];
+        //rows in one contiguous array for the assignment and update steps
+        DataStore store = new DataStore(dataSet);
+        int[] assignment = new int[store.size];
+        double[][] means = kMeans(store, k, new Random(), assignment);
 
-        double min = Double.POSITIVE_INFINITY;
-        double max = 0;
-        for(DataC data : dataSet) {
-            double[] features = data.getFeatures();
-            for(double d : features) {
-                if(d < min) {
-                    min = d;
-                }else if(d > max) {
-                    max = d;
-                }
-            }
+        for (int r= 0; r< store.size; r++) {
+            dataSet[store.slot[r]].setClusterID(assignment[r]);
         }
 
-        for(int i = 0; i < means.length; i++) {
-            //randomly initialize means from the data space
-            //Unformed sampling
-            for(int j = 0; j < dataSet[0].numFeatures(); j++) {
-                Random r = new Random();
-                double ranNum = r.nextInt((int)((max-min)+1)) + min;
-                means[i][j] = ranNum;
+        //return new DataC objects
+        DataC[] centroids = new DataC[k];
+        for (int i= 0; i< k; i++) {
+            centroids[i] = new DataC(means[i], i);
+        }
+
+        return centroids;
+    }
+
+    /*
+        k-means over the rows of a DataStore (see kMeansClusters()),
+        returns the k means and leaves the mean of row r in assignment[r].
+        The starting means are picked w/ random, so a seeded Random
+        gives the same means every time.
+     */
+    static double[][] kMeans(DataStore store, int k, Random random, int[] assignment) {
+        double[][] means = new double[k][store.dim];
+        double[][] newMeans =  new double[k][store.dim];
+        int dim = store.dim;
+
+        //initialize means from k distinct random rows, so every
+        //mean starts inside the data and no 2 means start equal
+        int[] rows = new int[store.size];
+        for (int i= 0; i< rows.length; i++) {
+            rows[i] = i;
+        }
+        for (int i= 0; i< means.length && rows.length > 0; i++) {
+            if (i < rows.length) {
+                int pick = i + random.nextInt(rows.length - i);
+                int tmp = rows[i];
+                rows[i] = rows[pick];
+                rows[pick] = tmp;
             }
+            System.arraycopy(store.features, rows[i % rows.length] * dim, means[i], 0, dim);
         }
 
+        //Hamerly's bounds: upper[r] >= distance to the assigned mean,
+        //lower[r] <= distance to every other mean
+        double[] upper = new double[store.size];
+        double[] lower = new double[store.size];
+        double[] shift = new double[k];
+        double[] halfGap = new double[k];   //half the distance to the closest other mean
+        double[][] gap = new double[k][k];  //distances between the means
+        int[][] byGap = new int[k][];       //other means of each mean, closest first
+
         boolean first = true;
         int iterations = 0;
 
-        //REPEAT until no change in means
-        while (isDifferent(means, newMeans) || iterations > 100) {
+        //REPEAT until no change in means (at most 100 times)
+        while ((first || isDifferent(means, newMeans)) && iterations < 100) {
             if(!first) {
-                //set means = newMeans after the first time through
+                //set means = newMeans after the first time through,
+                //loosen the bounds by how far the means moved
+                double maxShift= 0, secondShift= 0;
+                int maxMoved = -1;
                 for(int i = 0; i < means.length; i++) {
-                    if (dataSet[0].numFeatures() >= 0)
-                        System.arraycopy(newMeans[i], 0, means[i], 0, dataSet[0].numFeatures());
+                    shift[i] = Math.sqrt(Distance.squaredEuclidean(means[i], newMeans[i], Double.POSITIVE_INFINITY));
+                    if (shift[i] > maxShift) {
+                        secondShift = maxShift;
+                        maxShift = shift[i];
+                        maxMoved = i;
+                    }
+                    else if (shift[i] > secondShift) {
+                        secondShift = shift[i];
+                    }
+                    System.arraycopy(newMeans[i], 0, means[i], 0, dim);
+                }
+                for (int r= 0; r< store.size; r++) {
+                    upper[r] += shift[assignment[r]];
+                    lower[r] -= assignment[r] == maxMoved ? secondShift : maxShift;
                 }
             }
 
-            for (DataC d: dataSet) {
-                double[] distArray = new double[k];
-                double minDist = Double.POSITIVE_INFINITY;
-                int minCluster = 1;
+            Arrays.fill(halfGap, Double.POSITIVE_INFINITY);
+            for (int i= 0; i< k; i++) {
+                for (int j= i + 1; j< k; j++) {
+                    gap[i][j] = Math.sqrt(Distance.squaredEuclidean(means[i], means[j], Double.POSITIVE_INFINITY));
+                    gap[j][i] = gap[i][j];
+                    halfGap[i] = Math.min(halfGap[i], gap[i][j] / 2);
+                    halfGap[j] = Math.min(halfGap[j], gap[i][j] / 2);
+                }
+            }
+            for (int i= 0; i< k; i++) {
+                final double[] from = gap[i];
+                byGap[i] = IntStream.range(0, k).boxed()
+                        .sorted((x, y) -> Double.compare(from[x], from[y]))
+                        .mapToInt(Integer::intValue).toArray();
+            }
 
-                //get distances between each mean and features of d
-                for (int i= 0; i< k; i++) {
-                    distArray[i] = getDistance(means[i], d.getFeatures());
-                    if (distArray[i] < minDist) {
-                        minDist = distArray[i];
-                        minCluster = i;
+            int[] len = new int[k];
+            for (int r= 0; r< store.size; r++) {
+                int a = assignment[r];
+
+                if (first) {
+                    //no bounds yet, plain scan for the nearest mean (lower stays 0)
+                    double minDist = Double.POSITIVE_INFINITY;
+                    for (int i= 0; i< k; i++) {
+                        double dist = Distance.squaredEuclidean(store.features, r * dim, means[i], minDist);
+                        if (dist < minDist) {
+                            minDist = dist;
+                            a = i;
+                        }
                     }
+                    assignment[r] = a;
+                    upper[r] = Math.sqrt(minDist);
+                    len[a]++;
+                    continue;
                 }
 
-                d.setClusterID(minCluster);
+                //the nearest mean can not have changed, skip the row
+                double bound = Math.max(halfGap[a], lower[r]);
+                if (upper[r] <= bound) {
+                    len[a]++;
+                    continue;
+                }
+                double aDist = Distance.squaredEuclidean(store.features, r * dim, means[a], Double.POSITIVE_INFINITY);
+                upper[r] = Math.sqrt(aDist);
+                if (upper[r] <= bound) {
+                    len[a]++;
+                    continue;
+                }
+
+                //get distances between the other means and features of row r,
+                //closest to mean a first, until the rest are provably
+                //farther than the nearest so far
+                int minCluster = a;
+                double minDist = aDist;
+                double aRoot = upper[r];
+                double minRoot = aRoot;
+                double secondDist = Double.POSITIVE_INFINITY;
+                double skippedLower = Double.POSITIVE_INFINITY;
+                for (int i: byGap[a]) {
+                    if (i == a) {
+                        continue;
+                    }
+                    if (gap[a][i] - aRoot >= minRoot) {
+                        skippedLower = gap[a][i] - aRoot;
+                        break;
+                    }
+                    double dist = Distance.squaredEuclidean(store.features, r * dim, means[i], secondDist);
+                    if (dist < minDist) {
+                        secondDist = minDist;
+                        minDist = dist;
+                        minRoot = Math.sqrt(dist);
+                        minCluster = i;
+                    }
+                    else if (dist < secondDist) {
+                        secondDist = dist;
+                    }
+                }
 
+                assignment[r] = minCluster;
+                upper[r] = minRoot;
+                lower[r] = Math.min(Math.sqrt(secondDist), skippedLower);
+                len[minCluster]++;
             }
 
             //calculate new means --> update step
-            for (int i= 0; i< k; i++) {
-                DataC[] cluster = getCluster(dataSet, i);
-                int len = cluster.length;
-
-                //add all features for that cluster to newMeans
-                for (DataC d: cluster) {
-                    double[] features = d.getFeatures();
-                    for (int j= 0; j< features.length; j++) {
-                        newMeans[i][j] += features[j];
-                    }
+            //add all features for each cluster to newMeans in one pass
+            for (double[] mean: newMeans) {
+                Arrays.fill(mean, 0);
+            }
+            for (int r= 0; r< store.size; r++) {
+                double[] mean = newMeans[assignment[r]];
+                for (int j= 0; j< dim; j++) {
+                    mean[j] += store.features[r * dim + j];
                 }
+            }
 
-                //average over all points in the cluster
-                for (int j= 0; j< dataSet[0].getFeatures().length; j++) {
-                    if (newMeans[i][j] != 0) {
-                        newMeans[i][j] /= len;
-                    }
+            for (int i= 0; i< k; i++) {
+                //average over all points in the cluster, an empty cluster keeps its mean
+                for (int j= 0; j< dim; j++) {
+                    newMeans[i][j] = len[i] > 0 ? newMeans[i][j] / len[i] : means[i][j];
                 }
             }
 
@@ -107,15 +221,9 @@ public class Cluster {
             iterations++;
         }
 
-        //return new DataC objects
-        DataC[] centroids = new DataC[k];
-        for (int i= 0; i< k; i++) {
-            centroids[i] = new DataC(means[i], i);
-        }
-
 //        System.out.println(iterations);
 
-        return centroids;
+        return means;
     }
 
     public static DataC[] kMedoidsClusters(DataC[] dataSet, int k) {
@@ -227,12 +335,7 @@ public class Cluster {
             return -1;
         }
 
-        double sum = 0;
-        for (int i = 0; i< x.length; i++) {
-            sum += Math.pow((x[i] - y[i]), 2);
-        }
-
-        return Math.pow(sum, 1.0/2);
+        return Distance.euclidean(x, y);
     }
 
     public static boolean isDifferent(double[][] means, double[][] newMeans) {
@@ -0,0 +1,104 @@
+package project_2;
+
+import java.util.Arrays;
+
+/*
+    Columnar copy of the rows of a DataC[] - all feature vectors in one
+    contiguous row-major double[] plus primitive id and label arrays, so
+    distance scans over a store are sequential walks through memory.
+    The DataC rows stay the rows the rest of the code passes around; a
+    store is built from them and does not replace them.
+
+    Rows that are null or have no valid id (<= 0) are left out, slot[]
+    and position[] map between store rows and the original DataC[].
+    view() gives a DataC back for code that still wants one.
+
+    A KNNModel builds one store for its training set and every index
+    over it (and each candidate of a QueryPlanner) reads the features
+    from that store instead of keeping its own copy. Same layout and
+    row() methods as the DataStore of neural-nets.
+ */
+public class DataStore {
+
+    public final int size;
+    public final int dim;
+    public final double[] features;     //row r at features[r * dim]
+    public final int[] ids;
+    public final String[] classLabels;
+    public final int[] slot;            //position in the DataC[] of row r
+    public final int[] position;        //row of dataSet[i], -1 if left out
+
+    public DataStore(DataC[] dataSet) {
+        int n= 0;
+        int d= 0;
+        for (DataC row: dataSet) {
+            if (row != null && row.getID() > 0) {
+                d = row.getFeatures().length;
+                n++;
+            }
+        }
+
+        this.size = n;
+        this.dim = d;
+        this.features = new double[n * d];
+        this.ids = new int[n];
+        this.classLabels = new String[n];
+        this.slot = new int[n];
+        this.position = new int[dataSet.length];
+        Arrays.fill(position, -1);
+
+        int r= 0;
+        for (int i= 0; i< dataSet.length; i++) {
+            DataC row = dataSet[i];
+            if (row != null && row.getID() > 0) {
+                System.arraycopy(row.getFeatures(), 0, features, r * dim, dim);
+                ids[r] = row.getID();
+                classLabels[r] = row.getClassLabel();
+                slot[r] = i;
+                position[i] = r++;
+            }
+        }
+    }
+
+    /*
+        Rows that are already columnar (e.g. read from a ModelFile or
+        a data file), row r is at position r. Labels may be null.
+     */
+    DataStore(int dim, double[] features, int[] ids, String[] classLabels) {
+        this.size = ids.length;
+        this.dim = dim;
+        this.features = features;
+        this.ids = ids;
+        this.classLabels = classLabels == null ? new String[size] : classLabels;
+        this.slot = new int[size];
+        this.position = new int[size];
+        for (int r= 0; r< size; r++) {
+            slot[r] = r;
+            position[r] = r;
+        }
+    }
+
+    /*
+        Copies the features of row r into buf
+     */
+    public double[] row(int r, double[] buf) {
+        System.arraycopy(features, r * dim, buf, 0, dim);
+        return buf;
+    }
+
+    /*
+        Copy of the features of row r
+     */
+    public double[] row(int r) {
+        return Arrays.copyOfRange(features, r * dim, r * dim + dim);
+    }
+
+    /*
+        Row r as a new DataC object
+     */
+    public DataC view(int r) {
+        DataC d = new DataC(row(r), ids[r]);
+        d.setClassLabel(classLabels[r]);
+        return d;
+    }
+}
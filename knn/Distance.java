@@ -0,0 +1,108 @@
+package project_2;
+
+/*
+    Shared distance kernels for KNearestNeighbor, Cluster and the
+    search strategies.
+
+    The loops are unrolled 4 wide w/ independent accumulators so the JIT
+    can keep several multiply-adds in flight, and they never call
+    Math.pow() per element. Callers are expected to check that x and y
+    have the same length.
+ */
+public class Distance {
+
+    private Distance() { }
+
+    /*
+        Sum of squared differences between x and y
+     */
+    public static double squaredEuclidean(double[] x, double[] y) {
+        return squaredEuclidean(x, 0, y, Double.POSITIVE_INFINITY);
+    }
+
+    /*
+        Squared euclidean distance between x[off..off+y.length) and y.
+        Stops early and returns a partial sum >= bound once the running
+        sum passes bound (checked every 4 elements).
+     */
+    public static double squaredEuclidean(double[] x, int off, double[] y, double bound) {
+        int n = y.length;
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i= 0;
+        for (; i+ 3< n; i+= 4) {
+            double d0 = x[off + i] - y[i];
+            double d1 = x[off + i + 1] - y[i + 1];
+            double d2 = x[off + i + 2] - y[i + 2];
+            double d3 = x[off + i + 3] - y[i + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+            if (s0 + s1 + s2 + s3 >= bound) {
+                return s0 + s1 + s2 + s3;
+            }
+        }
+        for (; i< n; i++) {
+            double d = x[off + i] - y[i];
+            s0 += d * d;
+        }
+
+        return s0 + s1 + s2 + s3;
+    }
+
+    public static double squaredEuclidean(double[] x, double[] y, double bound) {
+        return squaredEuclidean(x, 0, y, bound);
+    }
+
+    public static double euclidean(double[] x, double[] y) {
+        return Math.sqrt(squaredEuclidean(x, y));
+    }
+
+    public static double manhattan(double[] x, double[] y) {
+        int n = x.length;
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i= 0;
+        for (; i+ 3< n; i+= 4) {
+            s0 += Math.abs(x[i] - y[i]);
+            s1 += Math.abs(x[i + 1] - y[i + 1]);
+            s2 += Math.abs(x[i + 2] - y[i + 2]);
+            s3 += Math.abs(x[i + 3] - y[i + 3]);
+        }
+        for (; i< n; i++) {
+            s0 += Math.abs(x[i] - y[i]);
+        }
+
+        return s0 + s1 + s2 + s3;
+    }
+
+    public static double dot(double[] x, double[] y) {
+        return dot(x, 0, y);
+    }
+
+    /*
+        Dot product of x[off..off+y.length) and y
+     */
+    public static double dot(double[] x, int off, double[] y) {
+        return dot(x, off, y, 0, y.length);
+    }
+
+    /*
+        Dot product of x[xOff..xOff+n) and y[yOff..yOff+n), e.g. of 2
+        rows of a DataStore w/o copying them
+     */
+    public static double dot(double[] x, int xOff, double[] y, int yOff, int n) {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i= 0;
+        for (; i+ 3< n; i+= 4) {
+            s0 += x[xOff + i] * y[yOff + i];
+            s1 += x[xOff + i + 1] * y[yOff + i + 1];
+            s2 += x[xOff + i + 2] * y[yOff + i + 2];
+            s3 += x[xOff + i + 3] * y[yOff + i + 3];
+        }
+        for (; i< n; i++) {
+            s0 += x[xOff + i] * y[yOff + i];
+        }
+
+        return s0 + s1 + s2 + s3;
+    }
+}
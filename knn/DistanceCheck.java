@@ -0,0 +1,120 @@
+package project_2;
+
+import java.util.Random;
+
+/*
+    Runnable check of the Distance kernels against the original scalar
+    loops (Math.pow per element, as getDistance() used to be written).
+
+    Run w/ java project_2.DistanceCheck, prints the number of failed
+    comparisons and exits w/ status 1 if there are any.
+ */
+public class DistanceCheck {
+
+    private static final double TOLERANCE = 1e-12;     //relative, the unrolled sums round differently
+
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        Random random = new Random(3);
+
+        for (int trial= 0; trial< 2000; trial++) {
+            int n = trial % 40;         //covers the unrolled body and every tail length
+            double scale = Math.pow(10, random.nextInt(7) - 3);
+            double[] x = new double[n];
+            double[] y = new double[n];
+            for (int i= 0; i< n; i++) {
+                x[i] = random.nextGaussian() * scale;
+                y[i] = random.nextGaussian() * scale;
+            }
+
+            double old = oldDistance(x, y);
+            check("euclidean", n, Distance.euclidean(x, y), old);
+            check("squaredEuclidean", n, Distance.squaredEuclidean(x, y), oldSquared(x, y));
+            check("manhattan", n, Distance.manhattan(x, y), oldManhattan(x, y));
+            check("dot", n, Distance.dot(x, y), oldDot(x, y), oldAbsDot(x, y));
+
+            //same rows at an offset inside a row-major array
+            int off = random.nextInt(5);
+            double[] rows = new double[off + n + 3];
+            System.arraycopy(x, 0, rows, off, n);
+            check("squaredEuclidean(off)", n, Distance.squaredEuclidean(rows, off, y, Double.POSITIVE_INFINITY), oldSquared(x, y));
+            check("dot(off)", n, Distance.dot(rows, off, y), oldDot(x, y), oldAbsDot(x, y));
+            check("dot(off, off)", n, Distance.dot(rows, off, rows, off, n), oldDot(x, x), oldAbsDot(x, x));
+
+            //bounded: exact below the bound, >= bound once it is passed
+            double full = oldSquared(x, y);
+            double above = Distance.squaredEuclidean(x, y, full * 2 + 1);
+            check("bounded (not reached)", n, above, full);
+            if (full > 0) {
+                double bound = full * random.nextDouble();
+                double partial = Distance.squaredEuclidean(x, y, bound);
+                if (partial < bound || partial > full * (1 + TOLERANCE)) {
+                    fail("bounded (reached)", n, partial, bound);
+                }
+            }
+        }
+
+        System.out.println("Distance check: " + failures + " failures");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void check(String kernel, int n, double actual, double expected) {
+        check(kernel, n, actual, expected, Math.abs(expected));
+    }
+
+    /*
+        magnitude is the size of the terms summed, a dot product of
+        mixed signs can cancel to much less than its terms
+     */
+    private static void check(String kernel, int n, double actual, double expected, double magnitude) {
+        if (Math.abs(actual - expected) > TOLERANCE * Math.max(1e-300, magnitude)) {
+            fail(kernel, n, actual, expected);
+        }
+    }
+
+    private static void fail(String kernel, int n, double actual, double expected) {
+        failures++;
+        System.out.println(kernel + " n=" + n + ": " + actual + " vs " + expected);
+    }
+
+    //the original scalar loops
+
+    private static double oldDistance(double[] x, double[] y) {
+        return Math.pow(oldSquared(x, y), 1.0/2);
+    }
+
+    private static double oldSquared(double[] x, double[] y) {
+        double sum = 0;
+        for (int i = 0; i< x.length; i++) {
+            sum += Math.pow((x[i] - y[i]), 2);
+        }
+        return sum;
+    }
+
+    private static double oldManhattan(double[] x, double[] y) {
+        double sum = 0;
+        for (int i = 0; i< x.length; i++) {
+            sum += Math.abs(x[i] - y[i]);
+        }
+        return sum;
+    }
+
+    private static double oldAbsDot(double[] x, double[] y) {
+        double sum = 0;
+        for (int i = 0; i< x.length; i++) {
+            sum += Math.abs(x[i] * y[i]);
+        }
+        return sum;
+    }
+
+    private static double oldDot(double[] x, double[] y) {
+        double sum = 0;
+        for (int i = 0; i< x.length; i++) {
+            sum += x[i] * y[i];
+        }
+        return sum;
+    }
+}
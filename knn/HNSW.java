@@ -0,0 +1,446 @@
+package project_2;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+    Approximate search strategy - Hierarchical Navigable Small World graph
+    (Malkov & Yashunin).
+
+    Every row is a node in a stack of proximity graphs. A row is on
+    level 0 and on each higher level w/ probability 1/M, so the upper
+    levels are sparse "express lanes". A query walks greedily down from
+    the top level and then does a best first search of width efSearch
+    on level 0.
+
+    Build parameters
+        M               links per node (2M on level 0)
+        efConstruction  search width while inserting
+    Query parameter
+        efSearch        search width while querying, >= k
+
+    Larger values give better recall and slower builds / queries.
+    Use KNearestNeighbor.recall() to check recall against brute force.
+ */
+public class HNSW implements NeighborSearch {
+
+    private int dim;
+    private int M;
+    private int efConstruction;
+    private int efSearch;
+    private double levelMult;
+    private Random random;
+
+    private double[] points;        //features of the DataStore, node i is row i
+    private int[] ids;
+    private int[] position;         //node of dataSet[i], -1 if not indexed
+    private boolean[] removed;
+
+    private int[][][] links;        //links[node][level] = neighbor nodes
+    private int[][] linkCount;
+    private int entryPoint;
+    private int maxLevel;
+
+    //visited marks, one array per thread so queries can run in parallel
+    private ThreadLocal<int[]> visited;
+    private ThreadLocal<int[]> visitedGen;
+
+    private HNSW() {
+    }
+
+    public HNSW(DataC[] dataSet, int M, int efConstruction, int efSearch) {
+        //rows w/o a valid id are never returned as neighbors
+        this(new DataStore(dataSet), M, efConstruction, efSearch);
+    }
+
+    public HNSW(DataStore store, int M, int efConstruction, int efSearch) {
+        this.M = Math.max(2, M);
+        this.efConstruction = Math.max(this.M, efConstruction);
+        this.efSearch = efSearch;
+        this.levelMult = 1 / Math.log(this.M);
+        this.random = new Random(42);
+
+        int n = store.size;
+        dim = store.dim;
+        points = store.features;
+        ids = store.ids;
+        position = store.position;
+        removed = new boolean[n];
+        links = new int[n][][];
+        linkCount = new int[n][];
+        entryPoint = -1;
+        maxLevel = -1;
+
+        final int nodes = n;
+        visited = ThreadLocal.withInitial(() -> new int[nodes]);
+        visitedGen = ThreadLocal.withInitial(() -> new int[1]);
+
+        for (int node= 0; node< n; node++) {
+            insert(node);
+        }
+    }
+
+    /*
+        Links node into the graph on levels 0 to its random level
+     */
+    private void insert(int node) {
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMult);
+        links[node] = new int[level + 1][];
+        linkCount[node] = new int[level + 1];
+        for (int l= 0; l<= level; l++) {
+            links[node][l] = new int[maxLinks(l) + 1];
+        }
+
+        if (entryPoint == -1) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        double[] query = Arrays.copyOfRange(points, node * dim, node * dim + dim);
+
+        //greedy descent through the levels above this node
+        int ep = entryPoint;
+        for (int l= maxLevel; l> level; l--) {
+            ep = greedy(query, ep, l);
+        }
+
+        //connect on every level the node lives on
+        for (int l= Math.min(level, maxLevel); l>= 0; l--) {
+            Heap found = searchLayer(query, ep, efConstruction, l);
+            double[] dist = new double[found.size];
+            int[] sorted = found.sortedValues(dist);
+            int[] chosen = selectNeighbors(sorted, dist, M);
+
+            for (int c: chosen) {
+                links[node][l][linkCount[node][l]++] = c;
+                connect(c, node, l);
+            }
+            ep = sorted[0];
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    private int maxLinks(int level) {
+        return level == 0 ? 2 * M : M;
+    }
+
+    /*
+        Adds the link from -> to on level, shrinking from's list w/ the
+        neighbor selection heuristic if it is full
+     */
+    private void connect(int from, int to, int level) {
+        int[] list = links[from][level];
+        list[linkCount[from][level]++] = to;
+
+        if (linkCount[from][level] > maxLinks(level)) {
+            //sort candidates by distance to from, then keep a diverse subset
+            int count = linkCount[from][level];
+            Heap heap = new Heap(count, true);
+            for (int i= 0; i< count; i++) {
+                heap.push(nodeDistance(from, list[i], Double.POSITIVE_INFINITY), list[i]);
+            }
+            double[] dist = new double[count];
+            int[] sorted = heap.sortedValues(dist);
+
+            int[] kept = selectNeighbors(sorted, dist, maxLinks(level));
+            System.arraycopy(kept, 0, list, 0, kept.length);
+            linkCount[from][level] = kept.length;
+        }
+    }
+
+    /*
+        Neighbor selection heuristic - walks candidates closest first and
+        keeps one only if it is closer to the base node (dist[]) than to
+        every node already kept, then tops up w/ the closest rejects
+     */
+    private int[] selectNeighbors(int[] candidates, double[] dist, int max) {
+        if (candidates.length <= max) {
+            return candidates;
+        }
+
+        int[] kept = new int[max];
+        boolean[] used = new boolean[candidates.length];
+        int count= 0;
+
+        for (int i= 0; i< candidates.length && count < max; i++) {
+            boolean good = true;
+            for (int j= 0; j< count && good; j++) {
+                if (nodeDistance(kept[j], candidates[i], dist[i]) < dist[i]) {
+                    good = false;
+                }
+            }
+            if (good) {
+                kept[count++] = candidates[i];
+                used[i] = true;
+            }
+        }
+        for (int i= 0; i< candidates.length && count < max; i++) {
+            if (!used[i]) {
+                kept[count++] = candidates[i];
+            }
+        }
+
+        return kept;
+    }
+
+    /*
+        Squared distance between 2 nodes, abandoned once it passes bound
+     */
+    private double nodeDistance(int a, int b, double bound) {
+        int offA = a * dim, offB = b * dim;
+        double sum = 0;
+        for (int j= 0; j< dim && sum < bound; j++) {
+            double diff = points[offA + j] - points[offB + j];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /*
+        Greedy walk on one level towards query, returns the closest node found
+     */
+    private int greedy(double[] query, int ep, int level) {
+        double best = Distance.squaredEuclidean(points, ep * dim, query, Double.POSITIVE_INFINITY);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] list = links[ep][level];
+            for (int i= 0; i< linkCount[ep][level]; i++) {
+                double d = Distance.squaredEuclidean(points, list[i] * dim, query, best);
+                if (d < best) {
+                    best = d;
+                    ep = list[i];
+                    changed = true;
+                }
+            }
+        }
+        return ep;
+    }
+
+    /*
+        Best first search of width ef on one level, returns the ef closest
+        nodes found in a max-heap
+     */
+    private Heap searchLayer(double[] query, int ep, int ef, int level) {
+        int[] mark = visited.get();
+        int[] gen = visitedGen.get();
+        if (++gen[0] == 0) {
+            Arrays.fill(mark, 0);
+            gen[0] = 1;
+        }
+
+        Heap candidates = new Heap(ef, false);
+        Heap found = new Heap(ef, true);
+
+        double d = Distance.squaredEuclidean(points, ep * dim, query, Double.POSITIVE_INFINITY);
+        candidates.push(d, ep);
+        found.push(d, ep);
+        mark[ep] = gen[0];
+
+        while (candidates.size > 0) {
+            double cd = candidates.topKey();
+            int c = candidates.pop();
+            if (found.size >= ef && cd > found.topKey()) {
+                break;
+            }
+
+            int[] list = links[c][level];
+            for (int i= 0; i< linkCount[c][level]; i++) {
+                int e = list[i];
+                if (mark[e] == gen[0]) {
+                    continue;
+                }
+                mark[e] = gen[0];
+
+                double bound = found.size < ef ? Double.POSITIVE_INFINITY : found.topKey();
+                double ed = Distance.squaredEuclidean(points, e * dim, query, bound);
+                if (ed < bound) {
+                    candidates.push(ed, e);
+                    found.push(ed, e);
+                    if (found.size > ef) {
+                        found.pop();
+                    }
+                }
+            }
+        }
+
+        return found;
+    }
+
+    public Neighbors search(double[] query, int k) {
+        TopK best = new TopK(k);
+        if (entryPoint == -1 || query.length != dim) {
+            return best.toNeighbors();
+        }
+
+        int ep = entryPoint;
+        for (int l= maxLevel; l> 0; l--) {
+            ep = greedy(query, ep, l);
+        }
+
+        //removed rows are still walked through but not returned
+        Heap found = searchLayer(query, ep, Math.max(efSearch, k), 0);
+        while (found.size > 0) {
+            double d = found.topKey();
+            int node = found.pop();
+            if (!removed[node]) {
+                best.offer(d, ids[node]);
+            }
+        }
+
+        return best.toNeighbors();
+    }
+
+    public void remove(int i) {
+        if (position[i] >= 0) {
+            removed[position[i]] = true;
+        }
+    }
+
+    public void setEfSearch(int efSearch) { this.efSearch = efSearch; }
+
+    /*
+        Writes the built graph for ModelFile (w/o the rows, they are
+        saved w/ the training set), read back w/ read()
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(dim);
+        out.writeInt(M);
+        out.writeInt(efConstruction);
+        out.writeInt(efSearch);
+        out.writeInt(entryPoint);
+        out.writeInt(maxLevel);
+        ModelFile.writeBooleans(out, removed);
+        for (int node= 0; node< links.length; node++) {
+            out.writeInt(links[node].length);
+            for (int l= 0; l< links[node].length; l++) {
+                ModelFile.writeInts(out, links[node][l], linkCount[node][l]);
+            }
+        }
+    }
+
+    /*
+        A graph written by write() over the rows of store
+     */
+    static HNSW read(ByteBuffer in, DataStore store) {
+        HNSW g = new HNSW();
+        g.dim = in.getInt();
+        g.M = in.getInt();
+        g.efConstruction = in.getInt();
+        g.efSearch = in.getInt();
+        g.levelMult = 1 / Math.log(g.M);
+        g.random = new Random(42);
+        g.entryPoint = in.getInt();
+        g.maxLevel = in.getInt();
+        g.points = store.features;
+        g.ids = store.ids;
+        g.position = store.position;
+        g.removed = ModelFile.readBooleans(in);
+
+        int n = g.ids.length;
+        g.links = new int[n][][];
+        g.linkCount = new int[n][];
+        for (int node= 0; node< n; node++) {
+            int levels = in.getInt();
+            g.links[node] = new int[levels][];
+            g.linkCount[node] = new int[levels];
+            for (int l= 0; l< levels; l++) {
+                int[] stored = ModelFile.readInts(in);
+                g.links[node][l] = Arrays.copyOf(stored, g.maxLinks(l) + 1);
+                g.linkCount[node][l] = stored.length;
+            }
+        }
+
+        g.visited = ThreadLocal.withInitial(() -> new int[n]);
+        g.visitedGen = ThreadLocal.withInitial(() -> new int[1]);
+        return g;
+    }
+
+    /*
+        Binary heap of (double key, int value), max-heap or min-heap
+     */
+    private class Heap {
+        double[] keys;
+        int[] values;
+        int size;
+        boolean max;
+
+        Heap(int capacity, boolean max) {
+            this.keys = new double[capacity + 1];
+            this.values = new int[capacity + 1];
+            this.max = max;
+        }
+
+        boolean above(double a, double b) {
+            return max ? a > b : a < b;
+        }
+
+        void push(double key, int value) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            int c = size++;
+            while (c > 0) {
+                int p = (c - 1) >>> 1;
+                if (!above(key, keys[p])) {
+                    break;
+                }
+                keys[c] = keys[p];
+                values[c] = values[p];
+                c = p;
+            }
+            keys[c] = key;
+            values[c] = value;
+        }
+
+        double topKey() {
+            return keys[0];
+        }
+
+        int pop() {
+            int top = values[0];
+            double key = keys[--size];
+            int value = values[size];
+            int c = 0;
+            while (true) {
+                int l = 2 * c + 1;
+                if (l >= size) {
+                    break;
+                }
+                int r = l + 1;
+                int next = (r < size && above(keys[r], keys[l])) ? r : l;
+                if (!above(keys[next], key)) {
+                    break;
+                }
+                keys[c] = keys[next];
+                values[c] = values[next];
+                c = next;
+            }
+            keys[c] = key;
+            values[c] = value;
+            return top;
+        }
+
+        /*
+            Empties a max-heap into its values sorted by ascending key,
+            keys copied into sortedKeys[]
+         */
+        int[] sortedValues(double[] sortedKeys) {
+            int[] sorted = new int[size];
+            for (int i= size - 1; i>= 0; i--) {
+                sortedKeys[i] = topKey();
+                sorted[i] = pop();
+            }
+            return sorted;
+        }
+    }
+}
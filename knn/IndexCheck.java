@@ -0,0 +1,266 @@
+package project_2;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+    Runnable check of every searchMethod against LinearSearch (and of the
+    k-means w/ Hamerly's bounds against plain Lloyd iterations).
+
+        exact   "kdtree", "pivot", "float", "int8", "auto" and local
+                shards must give the same k nearest distances as
+                "linear" for search(), searchBatch() and searchRadius(),
+                also after remove()
+        approx  "hnsw", "ivf" and "pq" must keep recall@10 at their
+                defaults above the minimum passed to checkRecall()
+        memory  a "pq" KNNModel must keep a fraction of the heap of a
+                "linear" one once its KNearestNeighbor is dropped
+
+    Run w/ java project_2.IndexCheck, prints each check and exits w/
+    status 1 if any of them fails.
+ */
+public class IndexCheck {
+
+    private static final double TOLERANCE = 1e-9;
+    private static final int QUERIES = 200;
+    private static final int K = 10;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        for (int dim: new int[] {4, 16}) {
+            DataC[] data = clustered(4000, dim, 11 + dim);
+            double[][] queries = features(clustered(QUERIES, dim, 97 + dim));
+
+            for (String method: new String[] {"kdtree", "pivot", "float", "int8", "auto", "sharded"}) {
+                checkExact(method, data, queries);
+            }
+            checkRecall("hnsw", data, queries, 0.90);
+            checkRecall("ivf", data, queries, 0.80);
+            checkRecall("pq", data, queries, 0.55);
+        }
+        checkKMeans();
+        checkMemory();
+
+        System.out.println("Index check: " + failures + " failures");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    /*
+        Gaussian clusters around 8 centers, labels 1 to 3
+     */
+    static DataC[] clustered(int n, int dim, long seed) {
+        Random random = new Random(seed);
+        double[][] centers = new double[8][dim];
+        Random fixed = new Random(5);
+        for (double[] c: centers) {
+            for (int j= 0; j< dim; j++) {
+                c[j] = fixed.nextDouble() * 10;
+            }
+        }
+
+        DataC[] rows = new DataC[n];
+        for (int i= 0; i< n; i++) {
+            double[] x = new double[dim];
+            double[] c = centers[random.nextInt(centers.length)];
+            for (int j= 0; j< dim; j++) {
+                x[j] = c[j] + random.nextGaussian();
+            }
+            rows[i] = new DataC(x, i + 1);
+            rows[i].setClassLabel(String.valueOf(1 + i % 3));
+        }
+        return rows;
+    }
+
+    private static double[][] features(DataC[] rows) {
+        double[][] x = new double[rows.length][];
+        for (int i= 0; i< rows.length; i++) {
+            x[i] = rows[i].getFeatures();
+        }
+        return x;
+    }
+
+    private static NeighborSearch build(String method, DataC[] data) {
+        KNearestNeighbor knn = new KNearestNeighbor(data, 3, true);
+        if (method.contentEquals("sharded")) {
+            knn.shards = 3;
+        }
+        else {
+            knn.searchMethod = method;
+        }
+        return knn.buildIndex(data);
+    }
+
+    private static void checkExact(String method, DataC[] data, double[][] queries) {
+        int dim = queries[0].length;
+        NeighborSearch linear = new LinearSearch(data);
+        NeighborSearch index = build(method, data);
+
+        int bad= 0;
+        for (int k: new int[] {1, K}) {
+            Neighbors[] batch = index.searchBatch(queries, k);
+            for (int q= 0; q< queries.length; q++) {
+                Neighbors exact = linear.search(queries[q], k);
+                bad += sameDists(exact, index.search(queries[q], k)) ? 0 : 1;
+                bad += sameDists(exact, batch[q]) ? 0 : 1;
+            }
+        }
+        for (int q= 0; q< queries.length; q += 10) {
+            bad += sameDists(linear.searchRadius(queries[q], 2.0), index.searchRadius(queries[q], 2.0)) ? 0 : 1;
+        }
+
+        //every 7th row removed from both
+        for (int i= 0; i< data.length; i += 7) {
+            linear.remove(i);
+            index.remove(i);
+        }
+        for (int q= 0; q< queries.length; q++) {
+            bad += sameDists(linear.search(queries[q], K), index.search(queries[q], K)) ? 0 : 1;
+        }
+
+        report(method + " dim=" + dim + " mismatches=" + bad, bad == 0);
+    }
+
+    private static boolean sameDists(Neighbors exact, Neighbors found) {
+        if (exact.size != found.size) {
+            return false;
+        }
+        for (int i= 0; i< exact.size; i++) {
+            if (Math.abs(exact.dists[i] - found.dists[i]) > TOLERANCE * Math.max(1, exact.dists[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void checkRecall(String method, DataC[] data, double[][] queries, double minRecall) {
+        KNearestNeighbor knn = new KNearestNeighbor(data, 3, true);
+        knn.searchMethod = method;
+        knn.k = K;
+        double recall = knn.recall(knn.buildIndex(data), data, queries);
+        report(String.format("%s dim=%d recall@%d=%.3f (min %.2f)", method, queries[0].length, K, recall, minRecall),
+                recall >= minRecall);
+    }
+
+    /*
+        Cluster.kMeans() must end w/ the same means as plain Lloyd
+        iterations from the same start
+     */
+    private static void checkKMeans() {
+        DataStore store = new DataStore(clustered(3000, 8, 3));
+        int k = 20;
+        double[][] means = Cluster.kMeans(store, k, new Random(7), new int[store.size]);
+        double[][] lloyd = lloyd(store, k, new Random(7));
+
+        double maxDiff= 0;
+        for (int i= 0; i< k; i++) {
+            for (int j= 0; j< store.dim; j++) {
+                maxDiff = Math.max(maxDiff, Math.abs(means[i][j] - lloyd[i][j]));
+            }
+        }
+        report("k-means vs Lloyd max mean difference=" + maxDiff, maxDiff < 1e-9);
+    }
+
+    /*
+        The k-means of Cluster w/o any bounds: every row is compared w/
+        every mean, same start and same stopping rule
+     */
+    private static double[][] lloyd(DataStore store, int k, Random random) {
+        int dim = store.dim;
+        int[] rows = new int[store.size];
+        for (int i= 0; i< rows.length; i++) {
+            rows[i] = i;
+        }
+        double[][] means = new double[k][dim];
+        for (int i= 0; i< k; i++) {
+            if (i < rows.length) {
+                int pick = i + random.nextInt(rows.length - i);
+                int tmp = rows[i];
+                rows[i] = rows[pick];
+                rows[pick] = tmp;
+            }
+            System.arraycopy(store.features, rows[i % rows.length] * dim, means[i], 0, dim);
+        }
+
+        double[][] newMeans = new double[k][dim];
+        boolean first = true;
+        for (int iterations= 0; (first || Cluster.isDifferent(means, newMeans)) && iterations < 100; iterations++) {
+            if (!first) {
+                for (int i= 0; i< k; i++) {
+                    means[i] = Arrays.copyOf(newMeans[i], dim);
+                }
+            }
+            first = false;
+
+            int[] len = new int[k];
+            double[][] sum = new double[k][dim];
+            for (int r= 0; r< store.size; r++) {
+                int best= 0;
+                double bestDist = Double.POSITIVE_INFINITY;
+                for (int i= 0; i< k; i++) {
+                    double d= 0;
+                    for (int j= 0; j< dim; j++) {
+                        double diff = store.features[r * dim + j] - means[i][j];
+                        d += diff * diff;
+                    }
+                    if (d < bestDist) {
+                        bestDist = d;
+                        best = i;
+                    }
+                }
+                len[best]++;
+                for (int j= 0; j< dim; j++) {
+                    sum[best][j] += store.features[r * dim + j];
+                }
+            }
+            for (int i= 0; i< k; i++) {
+                for (int j= 0; j< dim; j++) {
+                    newMeans[i][j] = len[i] > 0 ? sum[i][j] / len[i] : means[i][j];
+                }
+            }
+        }
+        return means;
+    }
+
+    /*
+        Heap still used by the snapshots after their KNearestNeighbor
+        and rows are dropped (20k rows x 32 dims, 8 bytes per feature
+        vs pqSubspaces = 16 bytes per row)
+     */
+    private static void checkMemory() {
+        long linear = retained("linear");
+        long pq = retained("pq");
+        report(String.format("retained heap linear=%dk pq=%dk", linear >> 10, pq >> 10), pq * 4 < linear);
+    }
+
+    private static long retained(String method) {
+        long before = usedHeap();
+        KNNModel model = model(method);
+        long after = usedHeap();
+        //keeps model reachable until after the measurement
+        return model.search(new double[32], 1).size == 1 ? after - before : -1;
+    }
+
+    private static KNNModel model(String method) {
+        KNearestNeighbor knn = new KNearestNeighbor(clustered(20000, 32, 1), 3, true);
+        knn.searchMethod = method;
+        return knn.getModel();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i= 0; i< 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void report(String line, boolean ok) {
+        System.out.println((ok ? "ok    " : "FAIL  ") + line);
+        if (!ok) {
+            failures++;
+        }
+    }
+}
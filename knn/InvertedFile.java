@@ -0,0 +1,127 @@
+package project_2;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+    Approximate search strategy - inverted file (IVF).
+
+    The centroids from Cluster.kMeansClusters() are used as a coarse
+    quantizer: every row goes into the posting list of its closest
+    centroid. The lists hold DataStore rows, the features are read
+    from the store, not copied.
+    A query only scans the nprobe lists whose centroids are closest to
+    it, so nprobe trades speed for recall (nprobe = numLists is exact).
+ */
+public class InvertedFile implements NeighborSearch {
+
+    private int dim;
+    private int nprobe;
+    private double[][] centroids;
+    private int[] listStart;        //rows of list c are listStart[c] to listStart[c+1]
+    private double[] points;        //features of the DataStore, not a copy
+    private int[] rows;             //store rows, grouped by list
+    private int[] ids;
+    private int[] position;         //row of dataSet[i], -1 if not indexed
+    private boolean[] removed;
+
+    public InvertedFile(DataC[] dataSet, int numLists, int nprobe) {
+        //rows w/o a valid id are never returned as neighbors
+        this(new DataStore(dataSet), numLists, nprobe);
+    }
+
+    public InvertedFile(DataStore store, int numLists, int nprobe) {
+        int n = store.size;
+        dim = store.dim;
+
+        this.nprobe = nprobe;
+        numLists = Math.max(1, Math.min(numLists, n));
+
+        //clustered on the store, so the caller's rows keep their cluster ids,
+        //w/ a fixed seed so the same rows always give the same lists (see ModelFile)
+        centroids = n == 0 ? new double[0][] : Cluster.kMeans(store, numLists, new Random(42), new int[n]);
+
+        //assign every row to its closest centroid
+        int[] list = new int[n];
+        listStart = new int[centroids.length + 1];
+        for (int r= 0; r< n; r++) {
+            list[r] = closest(store.features, r * dim);
+            listStart[list[r] + 1]++;
+        }
+        for (int i= 0; i< centroids.length; i++) {
+            listStart[i + 1] += listStart[i];
+        }
+
+        //lay rows out list by list
+        points = store.features;
+        rows = new int[n];
+        ids = new int[n];
+        removed = new boolean[n];
+        position = new int[store.position.length];
+        Arrays.fill(position, -1);
+        int[] next = Arrays.copyOf(listStart, centroids.length);
+        for (int r= 0; r< n; r++) {
+            int p = next[list[r]]++;
+            rows[p] = r;
+            ids[p] = store.ids[r];
+            position[store.slot[r]] = p;
+        }
+    }
+
+    /*
+        Closest centroid of the row at features[off], read in place
+     */
+    private int closest(double[] features, int off) {
+        int best = 0;
+        double bestDist = Double.POSITIVE_INFINITY;
+        for (int i= 0; i< centroids.length; i++) {
+            double d = Distance.squaredEuclidean(features, off, centroids[i], bestDist);
+            if (d < bestDist) {
+                bestDist = d;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    public Neighbors search(double[] query, int k) {
+        TopK best = new TopK(k);
+        if (query.length != dim || centroids.length == 0) {
+            return best.toNeighbors();
+        }
+
+        //nprobe closest lists
+        int probes = Math.max(1, Math.min(nprobe, centroids.length));
+        TopK lists = new TopK(probes);
+        for (int i= 0; i< centroids.length; i++) {
+            double d = Distance.squaredEuclidean(centroids[i], query);
+            if (d < lists.bound()) {
+                lists.offer(d, i);
+            }
+        }
+
+        Neighbors probe = lists.toNeighbors();
+        for (int i= 0; i< probe.size; i++) {
+            int list = probe.ids[i];
+            for (int r= listStart[list]; r< listStart[list + 1]; r++) {
+                if (!removed[r]) {
+                    double bound = best.bound();
+                    double d = Distance.squaredEuclidean(points, rows[r] * dim, query, bound);
+                    if (d < bound) {
+                        best.offer(d, ids[r]);
+                    }
+                }
+            }
+        }
+
+        return best.toNeighbors();
+    }
+
+    public void remove(int i) {
+        if (position[i] >= 0) {
+            removed[position[i]] = true;
+        }
+    }
+
+    public void setNprobe(int nprobe) { this.nprobe = nprobe; }
+}
@@ -0,0 +1,267 @@
+package project_2;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*
+    Exact k-dimensional tree search strategy.
+
+    Built once per training set by splitting on the median of the
+    dimension with the widest spread until a node holds at most
+    LEAF_SIZE rows. The tree only keeps the DataStore rows in tree
+    order; the features are read from the store, not copied.
+
+    Queries are branch and bound: the far side of a split is only
+    visited if the splitting plane is closer than the current kth
+    nearest distance, so a query on a low dimensional set like glass
+    or abalone only touches a few leaves.
+ */
+public class KDTree implements NeighborSearch {
+
+    private static final int LEAF_SIZE = 8;
+
+    private int dim;
+    private int numNodes;
+    private double[] points;        //features of the DataStore, not a copy
+    private int[] rows;             //store row of each tree position
+    private int[] ids;              //DataC id of each row in tree order
+    private int[] position;         //position in tree order of dataSet[i]
+    private boolean[] removed;
+
+    //nodes, left[node] == -1 for a leaf
+    private int[] start;
+    private int[] end;
+    private int[] splitDim;
+    private double[] splitVal;
+    private int[] left;
+    private int[] right;
+
+    private KDTree() {
+    }
+
+    public KDTree(DataC[] dataSet) {
+        //rows w/o a valid id are never returned as neighbors
+        this(new DataStore(dataSet));
+    }
+
+    public KDTree(DataStore store) {
+        int n = store.size;
+        dim = store.dim;
+
+        int[] order = new int[n];
+        for (int i= 0; i< n; i++) {
+            order[i] = i;
+        }
+
+        int maxNodes = 2 * (n / (LEAF_SIZE / 2) + 1);
+        start = new int[maxNodes];
+        end = new int[maxNodes];
+        splitDim = new int[maxNodes];
+        splitVal = new double[maxNodes];
+        left = new int[maxNodes];
+        right = new int[maxNodes];
+
+        if (n > 0) {
+            build(store.features, order, 0, n);
+        }
+
+        points = store.features;
+        rows = order;
+        ids = new int[n];
+        position = new int[store.position.length];
+        Arrays.fill(position, -1);
+        removed = new boolean[n];
+        for (int i= 0; i< n; i++) {
+            ids[i] = store.ids[order[i]];
+            position[store.slot[order[i]]] = i;
+        }
+    }
+
+    /*
+        Recursively builds the subtree over order[from..to), returns its node number
+     */
+    private int build(double[] features, int[] order, int from, int to) {
+        int node = numNodes++;
+        start[node] = from;
+        end[node] = to;
+        left[node] = -1;
+        right[node] = -1;
+
+        if (to - from <= LEAF_SIZE) {
+            return node;
+        }
+
+        //split on the dimension w/ the widest spread
+        int best = 0;
+        double bestSpread = -1;
+        for (int j= 0; j< dim; j++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i= from; i< to; i++) {
+                double v = features[order[i] * dim + j];
+                if (v < min) { min = v; }
+                if (v > max) { max = v; }
+            }
+            if (max - min > bestSpread) {
+                bestSpread = max - min;
+                best = j;
+            }
+        }
+
+        int mid = (from + to) / 2;
+        select(features, dim, order, from, to - 1, mid, best);
+
+        splitDim[node] = best;
+        splitVal[node] = features[order[mid] * dim + best];
+        left[node] = build(features, order, from, mid);
+        right[node] = build(features, order, mid, to);
+
+        return node;
+    }
+
+    /*
+        Quickselect - partially orders order[lo..hi] so that order[nth]
+        holds the median value of dimension j
+     */
+    private static void select(double[] features, int dim, int[] order, int lo, int hi, int nth, int j) {
+        while (hi > lo) {
+            double pivot = features[order[(lo + hi) >>> 1] * dim + j];
+            int i = lo, k = hi;
+            while (i <= k) {
+                while (features[order[i] * dim + j] < pivot) { i++; }
+                while (features[order[k] * dim + j] > pivot) { k--; }
+                if (i <= k) {
+                    int temp = order[i];
+                    order[i++] = order[k];
+                    order[k--] = temp;
+                }
+            }
+            if (nth <= k) { hi = k; }
+            else if (nth >= i) { lo = i; }
+            else { return; }
+        }
+    }
+
+    public Neighbors search(double[] query, int k) {
+        TopK best = new TopK(k);
+
+        if (numNodes > 0 && query.length == dim) {
+            search(0, query, best);
+        }
+
+        return best.toNeighbors();
+    }
+
+    private void search(int node, double[] query, TopK best) {
+        //LEAF - scan rows, abandoning each distance once it passes the kth best
+        if (left[node] == -1) {
+            for (int r= start[node]; r< end[node]; r++) {
+                if (removed[r]) {
+                    continue;
+                }
+
+                double bound = best.bound();
+                double sum = Distance.squaredEuclidean(points, rows[r] * dim, query, bound);
+
+                if (sum < bound) {
+                    best.offer(sum, ids[r]);
+                }
+            }
+            return;
+        }
+
+        //INTERNAL - nearer side first, far side only if the plane is within the kth best
+        double diff = query[splitDim[node]] - splitVal[node];
+        int near = diff < 0 ? left[node] : right[node];
+        int far = diff < 0 ? right[node] : left[node];
+
+        search(near, query, best);
+        if (diff * diff < best.bound()) {
+            search(far, query, best);
+        }
+    }
+
+    public Neighbors searchRadius(double[] query, double radius) {
+        TopK inside = TopK.unbounded();
+
+        if (numNodes > 0 && query.length == dim) {
+            searchRadius(0, query, radius * radius, inside);
+        }
+
+        return inside.toNeighbors();
+    }
+
+    private void searchRadius(int node, double[] query, double bound, TopK inside) {
+        if (left[node] == -1) {
+            for (int r= start[node]; r< end[node]; r++) {
+                if (!removed[r]) {
+                    double sum = Distance.squaredEuclidean(points, rows[r] * dim, query, bound);
+                    if (sum < bound) {
+                        inside.offer(sum, ids[r]);
+                    }
+                }
+            }
+            return;
+        }
+
+        //only visit a side if the ball around the query reaches it
+        double diff = query[splitDim[node]] - splitVal[node];
+        if (diff < 0 || diff * diff < bound) {
+            searchRadius(left[node], query, bound, inside);
+        }
+        if (diff >= 0 || diff * diff < bound) {
+            searchRadius(right[node], query, bound, inside);
+        }
+    }
+
+    public void remove(int i) {
+        if (position[i] >= 0) {
+            removed[position[i]] = true;
+        }
+    }
+
+    /*
+        Writes the built tree for ModelFile (w/o the features, they are
+        saved w/ the training set), read back w/ read()
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(dim);
+        out.writeInt(numNodes);
+        ModelFile.writeInts(out, rows, rows.length);
+        ModelFile.writeInts(out, ids, ids.length);
+        ModelFile.writeBooleans(out, removed);
+        ModelFile.writeInts(out, start, numNodes);
+        ModelFile.writeInts(out, end, numNodes);
+        ModelFile.writeInts(out, splitDim, numNodes);
+        ModelFile.writeDoubles(out, splitVal, numNodes);
+        ModelFile.writeInts(out, left, numNodes);
+        ModelFile.writeInts(out, right, numNodes);
+    }
+
+    /*
+        A tree written by write() over the rows of store
+     */
+    static KDTree read(ByteBuffer in, DataStore store) {
+        KDTree tree = new KDTree();
+        tree.dim = in.getInt();
+        tree.numNodes = in.getInt();
+        tree.points = store.features;
+        tree.rows = ModelFile.readInts(in);
+        tree.ids = ModelFile.readInts(in);
+        tree.position = new int[store.position.length];
+        Arrays.fill(tree.position, -1);
+        for (int i= 0; i< tree.rows.length; i++) {
+            tree.position[store.slot[tree.rows[i]]] = i;
+        }
+        tree.removed = ModelFile.readBooleans(in);
+        tree.start = ModelFile.readInts(in);
+        tree.end = ModelFile.readInts(in);
+        tree.splitDim = ModelFile.readInts(in);
+        tree.splitVal = ModelFile.readDoubles(in);
+        tree.left = ModelFile.readInts(in);
+        tree.right = ModelFile.readInts(in);
+        return tree;
+    }
+}
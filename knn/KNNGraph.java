@@ -0,0 +1,187 @@
+package project_2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/*
+    The k nearest neighbor graph of a set of rows, used by
+    KNearestNeighbor.editDataSet().
+
+    Built once w/ a parallel, blocked self join: the rows are cut into
+    blocks and every block is searched w/ searchBatch() on its own
+    thread. Each row keeps its k nearest (itself included, like
+    classify() on the training set) and every row keeps a reverse list
+    of the rows that have it as a neighbor.
+
+    remove() deletes rows from the index and only re-searches the rows
+    that had a deleted row among their neighbors.
+ */
+public class KNNGraph {
+
+    private static final int BLOCK = 256;
+
+    private DataC[] rows;
+    private int k;
+    private int parallelism;
+    private NeighborSearch index;
+    private int[] idToRow;
+    private Neighbors[] neighbors;
+    private int[][] reverse;        //reverse[j] = rows w/ j as a neighbor
+    private int[] reverseCount;
+    private boolean[] removed;
+
+    public KNNGraph(KNearestNeighbor knn, DataC[] rows, int k) {
+        this.rows = rows;
+        this.k = k;
+        this.parallelism = Math.max(1, knn.parallelism);
+        this.index = knn.buildIndex(rows);
+        this.neighbors = new Neighbors[rows.length];
+        this.reverse = new int[rows.length][];
+        this.reverseCount = new int[rows.length];
+        this.removed = new boolean[rows.length];
+
+        //neighbors come back as DataC ids
+        int maxID = 0;
+        for (DataC d: rows) {
+            maxID = Math.max(maxID, d.getID());
+        }
+        idToRow = new int[maxID + 1];
+        Arrays.fill(idToRow, -1);
+        for (int i= 0; i< rows.length; i++) {
+            idToRow[rows[i].getID()] = i;
+        }
+
+        int[] all = new int[rows.length];
+        for (int i= 0; i< all.length; i++) {
+            all[i] = i;
+        }
+        search(all);
+
+        for (int i= 0; i< rows.length; i++) {
+            for (int j= 0; j< neighbors[i].size; j++) {
+                addReverse(toRow(neighbors[i].ids[j]), i);
+            }
+        }
+    }
+
+    /*
+        Searches the neighbors of the given rows in parallel blocks
+     */
+    private void search(int[] which) {
+        List<ForkJoinTask<?>> blocks = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+        for (int b= 0; b< which.length; b+= BLOCK) {
+            final int from = b;
+            final int to = Math.min(b + BLOCK, which.length);
+            blocks.add(pool.submit(() -> {
+                double[][] queries = new double[to - from][];
+                for (int q= from; q< to; q++) {
+                    queries[q - from] = rows[which[q]].getFeatures();
+                }
+
+                Neighbors[] found = index.searchBatch(queries, k);
+                for (int q= from; q< to; q++) {
+                    neighbors[which[q]] = found[q - from];
+                }
+            }));
+        }
+
+        for (ForkJoinTask<?> block: blocks) {
+            block.join();
+        }
+        pool.shutdown();
+    }
+
+    public Neighbors neighbors(int i) {
+        return neighbors[i];
+    }
+
+    /*
+        Neighbors of row i among the rows not removed, for kernel
+        regression (see KNearestNeighbor.searchKernel()). Not kept in
+        the graph, the kernel support is a radius and not k rows.
+     */
+    public Neighbors kernelNeighbors(KNearestNeighbor knn, int i, KNNParams params) {
+        return knn.searchKernel(index, rows[i].getFeatures(), params);
+    }
+
+    /*
+        Removes rows from the graph, repairs the neighbor lists that
+        pointed at them and returns the repaired rows
+     */
+    public int[] remove(int[] deleted) {
+        for (int d: deleted) {
+            removed[d] = true;
+            index.remove(d);
+        }
+
+        //rows that lost a neighbor
+        boolean[] affected = new boolean[rows.length];
+        int count= 0;
+        for (int d: deleted) {
+            for (int j= 0; j< reverseCount[d]; j++) {
+                int i = reverse[d][j];
+                if (!removed[i] && !affected[i]) {
+                    affected[i] = true;
+                    count++;
+                }
+            }
+        }
+
+        int[] repair = new int[count];
+        int c= 0;
+        for (int i= 0; i< rows.length; i++) {
+            if (affected[i]) {
+                repair[c++] = i;
+
+                //drop the old reverse links
+                for (int j= 0; j< neighbors[i].size; j++) {
+                    removeReverse(toRow(neighbors[i].ids[j]), i);
+                }
+            }
+        }
+
+        search(repair);
+
+        for (int i: repair) {
+            for (int j= 0; j< neighbors[i].size; j++) {
+                addReverse(toRow(neighbors[i].ids[j]), i);
+            }
+        }
+
+        return repair;
+    }
+
+    private int toRow(int id) {
+        return id < idToRow.length ? idToRow[id] : -1;
+    }
+
+    private void addReverse(int j, int i) {
+        if (j < 0) {
+            return;
+        }
+        if (reverse[j] == null) {
+            reverse[j] = new int[k];
+        }
+        else if (reverseCount[j] == reverse[j].length) {
+            reverse[j] = Arrays.copyOf(reverse[j], 2 * reverse[j].length);
+        }
+        reverse[j][reverseCount[j]++] = i;
+    }
+
+    private void removeReverse(int j, int i) {
+        if (j < 0) {
+            return;
+        }
+        for (int r= 0; r< reverseCount[j]; r++) {
+            if (reverse[j][r] == i) {
+                reverse[j][r] = reverse[j][--reverseCount[j]];
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package project_2;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/*
+    An immutable snapshot of a KNearestNeighbor model: the training set
+    (data + reducedData) in one DataStore, the index built over that
+    store, its parsed labels, the hyperparameters and a frozen copy of
+    the other settings.
+
+    The store is a copy taken when the snapshot is built, so nothing in
+    a snapshot changes afterwards - not even when the KNearestNeighbor
+    renumbers or reorders its DataC rows (editDataSet(), splitFolds()).
+    Any number of threads can call predictClass() / predictValue() on
+    it w/o locking.
+    A "pq" snapshot keeps only the codes and codebooks of its PQSearch,
+    the ids and the labels - neither the store nor the DataC rows - so
+    it takes about pqSubspaces bytes per row once the caller drops the
+    KNearestNeighbor and its data (see IndexCheck).
+    KNearestNeighbor.publish() builds a new snapshot and swaps it in
+    atomically (see getModel()); threads still holding the old one
+    finish their queries on it.
+ */
+public final class KNNModel {
+
+    public final long version;
+    public final KNNParams params;
+
+    private final KNearestNeighbor settings;    //private copy, never changed
+    private final DataStore store;          //the index reads its features from here, null for "pq"
+    private final NeighborSearch index;
+    private final Labels labels;
+    private final QueryCache cache;
+    private final String mode;
+    private final String cacheMode;         //mode + version, old snapshots never share entries
+
+    //what the snapshot was built from, only compared by reference to tell
+    //if it is stale, weak so a "pq" snapshot does not keep the rows alive
+    private final WeakReference<DataC[]> data;
+    private final WeakReference<DataC[]> reducedData;
+    private final int dataLength;
+    private final NeighborSearch[] remoteShards;
+
+    /*
+        Snapshot of knn's current state. The index and labels of
+        previous are reused when the training set and searchMethod
+        did not change (e.g. after tune()).
+     */
+    KNNModel(KNearestNeighbor knn, long version, KNNModel previous) {
+        this(knn, version, previous, null, null);
+    }
+
+    /*
+        Same, but w/ an index that was already built over store, the
+        rows of data + reducedData (see ModelFile.load())
+     */
+    KNNModel(KNearestNeighbor knn, long version, KNNModel previous, DataStore built, NeighborSearch builtIndex) {
+        this.version = version;
+        this.settings = new KNearestNeighbor(knn);
+        this.settings.data = new DataC[0];     //the rows are in store (or only in the index)
+        this.settings.reducedData = null;
+        this.settings.isReducedData = false;
+        this.params = settings.getParams();
+        this.data = new WeakReference<>(knn.data);
+        this.reducedData = knn.isReducedData ? new WeakReference<>(knn.reducedData) : null;
+        this.dataLength = knn.data.length;
+        this.remoteShards = knn.remoteShards;
+        this.cache = knn.cache;
+        this.mode = settings.predictionMode();
+        this.cacheMode = mode + " v" + version;
+
+        if (built != null) {
+            this.store = keep(built);
+            this.index = builtIndex;
+            this.labels = new Labels(built, dataLength, settings.classification);
+        }
+        else if (previous != null && previous.sameTrainingSet(knn)) {
+            this.store = previous.store;
+            this.index = previous.index;
+            this.labels = previous.labels;
+        }
+        else if (remoteShards != null) {
+            //coordinator, no rows in this JVM (see KNearestNeighbor.useShards())
+            this.store = null;
+            this.index = new ShardedSearch(remoteShards);
+            this.labels = knn.remoteLabels;
+        }
+        else {
+            DataStore rows = new DataStore(trainingSet(knn.data, knn.isReducedData ? knn.reducedData : null));
+            this.store = keep(rows);
+            this.index = settings.buildIndex(rows);
+            this.labels = new Labels(rows, dataLength, settings.classification);
+        }
+    }
+
+    /*
+        The store to hold on to, none when the index keeps codes only
+     */
+    private DataStore keep(DataStore rows) {
+        return settings.searchMethod.contentEquals("pq") ? null : rows;
+    }
+
+    /*
+        data followed by reducedData (if any), the rows a snapshot is built over
+     */
+    static DataC[] trainingSet(DataC[] data, DataC[] reducedData) {
+        if (reducedData == null) {
+            return data;
+        }
+        DataC[] train = Arrays.copyOf(data, data.length + reducedData.length);
+        System.arraycopy(reducedData, 0, train, data.length, reducedData.length);
+        return train;
+    }
+
+    private boolean sameTrainingSet(KNearestNeighbor knn) {
+        return data.get() == knn.data
+                && (reducedData == null ? !knn.isReducedData : knn.isReducedData && reducedData.get() == knn.reducedData)
+                && remoteShards == knn.remoteShards && (remoteShards == null || labels == knn.remoteLabels)
+                && settings.sameIndexSettings(knn);
+    }
+
+    /*
+        True if knn's fields no longer match this snapshot
+     */
+    boolean isStale(KNearestNeighbor knn) {
+        return !sameTrainingSet(knn) || cache != knn.cache
+                || params.k != knn.k || params.epsilon != knn.epsilon || params.sigma != knn.sigma
+                || !mode.contentEquals(knn.predictionMode());
+    }
+
+    /*
+        Class of query w/ this snapshot's training set and settings
+     */
+    public int predictClass(double[] query) {
+        if (cache != null) {
+            Double cached = cache.get(query, params, cacheMode);
+            if (cached != null) {
+                return cached.intValue();
+            }
+        }
+
+        int cl = settings.voteClass(index.search(query, params.k), labels);
+        if (cache != null) {
+            cache.put(query, params, cacheMode, cl);
+        }
+        return cl;
+    }
+
+    /*
+        Response value of query w/ this snapshot's training set and settings
+     */
+    public double predictValue(double[] query) {
+        if (cache != null) {
+            Double cached = cache.get(query, params, cacheMode);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        double value = settings.predictValue(settings.searchKernel(index, query, params), params, labels);
+        if (cache != null) {
+            cache.put(query, params, cacheMode, value);
+        }
+        return value;
+    }
+
+    /*
+        Class or response value of query as a String, like classify()
+     */
+    public String classify(double[] query) {
+        if (settings.classification) {
+            return String.valueOf(predictClass(query));
+        }
+        return String.valueOf(predictValue(query));
+    }
+
+    public Neighbors search(double[] query, int k) {
+        return index.search(query, k);
+    }
+
+    public String getSearchMethod() { return settings.searchMethod; }
+
+    /*
+        The built index, a QueryPlanner (see metrics()) when searchMethod is "auto"
+     */
+    public NeighborSearch getIndex() { return index; }
+
+    public boolean isClassification() { return settings.classification; }
+
+    //for ModelFile, which saves nothing but the snapshot
+
+    boolean isRemote() { return remoteShards != null; }
+
+    KNearestNeighbor settings() { return settings; }
+
+    /*
+        The rows of the snapshot, built again from data + reducedData for
+        "pq" (null if they are gone)
+     */
+    DataStore rows() {
+        if (store != null) {
+            return store;
+        }
+        DataC[] train = data.get();
+        DataC[] reduced = reducedData == null ? null : reducedData.get();
+        if (train == null || (reducedData != null && reduced == null)) {
+            return null;
+        }
+        return new DataStore(trainingSet(train, reduced));
+    }
+
+    /*
+        Rows of rows() that came from data, the rest are reducedData
+     */
+    int dataRows(DataStore rows) {
+        int r= 0;
+        while (r < rows.size && rows.slot[r] < dataLength) {
+            r++;
+        }
+        return r;
+    }
+
+    boolean hasReducedData() { return reducedData != null; }
+}
@@ -0,0 +1,19 @@
+package project_2;
+
+/*
+    An immutable set of KNN hyperparameters. Passed into loss() and
+    the folds of crossValidate() so they never read the mutable fields
+    of KNearestNeighbor while running on another thread.
+ */
+public class KNNParams {
+
+    public final int k;
+    public final double epsilon;
+    public final double sigma;
+
+    public KNNParams(int k, double epsilon, double sigma) {
+        this.k = k;
+        this.epsilon = epsilon;
+        this.sigma = sigma;
+    }
+}
@@ -1,6 +1,11 @@
 package project_2;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /*
     1. Load data
@@ -19,6 +24,7 @@ import java.util.*;
 
     3b. Put the distance and id of example in k-dimensional tree
     4. Find nearest neighbors in O(log(n)) time
+        --> set searchMethod = "kdtree" (see KDTree)
 
  */
 public class KNearestNeighbor {
@@ -31,6 +37,33 @@ public class KNearestNeighbor {
     public double epsilon;
     public double sigma;
     public boolean classification;
+    public String searchMethod;
+    public double recallTarget;
+    public int parallelism;
+    public int hnswM;
+    public int hnswEfConstruction;
+    public int hnswEfSearch;
+    public int numPivots;
+    public int ivfLists;
+    public int ivfProbe;
+    public int pqSubspaces;
+    public int pqCentroids;
+    public int shards;
+    public String sharding;
+    public String regressionMethod;
+    public String kernel;
+    public double kernelSupport;
+    public QueryCache cache;
+
+    private Labels labels;
+    private DataC[] labelsFor;
+    private NeighborSearch dataSetIndex;        //see classify(DataC[], double[])
+    private DataC[] dataSetIndexFor;
+    private KNearestNeighbor dataSetIndexSettings;
+    NeighborSearch[] remoteShards;      //see useShards()
+    Labels remoteLabels;
+    private final AtomicReference<KNNModel> model = new AtomicReference<>();
+    private final AtomicLong modelVersion = new AtomicLong();
    
     /*
         Constructor takes any of the data sets we are working with
@@ -44,6 +77,152 @@ public class KNearestNeighbor {
         this.k = 4;
         this.epsilon = 1.0;
         this.sigma = 1.0;
+
+        //"linear" for brute force, "kdtree", "pivot", "float" or "int8"
+        //(compressed scan, exact re-rank), "hnsw", "ivf" or "pq" (approximate),
+        //or "auto" to let a QueryPlanner pick per query w/ at least recallTarget recall
+        this.searchMethod = "linear";
+        this.recallTarget = 0.95;
+        this.hnswM = 16;
+        this.hnswEfConstruction = 100;
+        this.hnswEfSearch = 50;
+        this.numPivots = 16;
+        this.ivfLists = 0;      //0 --> sqrt(n) lists
+        this.ivfProbe = 4;
+        this.pqSubspaces = 0;   //0 --> dim/2 sub-vectors of 2 features
+        this.pqCentroids = 256;
+
+        //split the index into shards searched in parallel (see ShardedSearch),
+        //partitioned by "hash" of the id or "range" of positions
+        this.shards = 1;
+        this.sharding = "hash";
+
+        //"weighted" average of the k nearest or "kernel" regression over a
+        //radius of kernelSupport * sigma w/ a "gaussian" or "epanechnikov" kernel
+        this.regressionMethod = "weighted";
+        this.kernel = "gaussian";
+        this.kernelSupport = 3.0;
+
+        //set to a QueryCache to reuse predictClass() / predictValue() of repeated queries
+        this.cache = null;
+
+        //number of folds crossValidate() runs at once
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+    /*
+        Copy of the data and settings of other (see KNNModel)
+     */
+    public KNearestNeighbor(KNearestNeighbor other) {
+        this.data = other.data;
+        this.reducedData = other.reducedData;
+        this.isReducedData = other.isReducedData;
+        this.numClasses = other.numClasses;
+        this.classification = other.classification;
+        this.k = other.k;
+        this.epsilon = other.epsilon;
+        this.sigma = other.sigma;
+        this.searchMethod = other.searchMethod;
+        this.recallTarget = other.recallTarget;
+        this.hnswM = other.hnswM;
+        this.hnswEfConstruction = other.hnswEfConstruction;
+        this.hnswEfSearch = other.hnswEfSearch;
+        this.numPivots = other.numPivots;
+        this.ivfLists = other.ivfLists;
+        this.ivfProbe = other.ivfProbe;
+        this.pqSubspaces = other.pqSubspaces;
+        this.pqCentroids = other.pqCentroids;
+        this.shards = other.shards;
+        this.sharding = other.sharding;
+        this.regressionMethod = other.regressionMethod;
+        this.kernel = other.kernel;
+        this.kernelSupport = other.kernelSupport;
+        this.cache = other.cache;
+        this.parallelism = other.parallelism;
+        this.remoteShards = other.remoteShards;
+        this.remoteLabels = other.remoteLabels;
+    }
+
+    /*
+        Fraction of the true k nearest neighbors (by brute force) that
+        index finds for queries, averaged over the queries. 1.0 for the
+        exact strategies.
+     */
+    public double recall(NeighborSearch index, DataC[] dataSet, double[][] queries) {
+        return recall(index, new DataStore(dataSet), queries);
+    }
+
+    /*
+        Same, w/ the training set in a DataStore
+     */
+    public double recall(NeighborSearch index, DataStore store, double[][] queries) {
+        Neighbors[] exact = new LinearSearch(store).searchBatch(queries, k);
+        Neighbors[] approx = index.searchBatch(queries, k);
+
+        double total= 0;
+        for (int q= 0; q< queries.length; q++) {
+            total += exact[q].recall(approx[q]);
+        }
+
+        return queries.length == 0 ? 1.0 : total / queries.length;
+    }
+
+    /*
+        The current k, epsilon and sigma as an immutable KNNParams
+     */
+    public KNNParams getParams() {
+        return new KNNParams(this.k, this.epsilon, this.sigma);
+    }
+
+    /*
+        Builds the nearest neighbor index for a training set using
+        the current searchMethod. Build once, then query with
+        classify(NeighborSearch, double[]).
+     */
+    public NeighborSearch buildIndex(DataC[] dataSet) {
+        return buildIndex(new DataStore(dataSet));
+    }
+
+    /*
+        Same, over the rows of store. The index reads the features from
+        store instead of copying them (local shards copy their own part).
+     */
+    public NeighborSearch buildIndex(DataStore store) {
+        if (shards > 1) {
+            return new ShardedSearch(this, store, shards, sharding);
+        }
+        return buildLocalIndex(store);
+    }
+
+    /*
+        The searchMethod index of one shard (or of the whole training set)
+     */
+    public NeighborSearch buildLocalIndex(DataC[] dataSet) {
+        return buildLocalIndex(new DataStore(dataSet));
+    }
+
+    public NeighborSearch buildLocalIndex(DataStore store) {
+        switch (searchMethod) {
+            case "kdtree":
+                return new KDTree(store);
+            case "pivot":
+                return new PivotTable(store, numPivots);
+            case "ivf":
+                int lists = ivfLists > 0 ? ivfLists : (int) Math.sqrt(store.size);
+                return new InvertedFile(store, lists, ivfProbe);
+            case "hnsw":
+                return new HNSW(store, hnswM, hnswEfConstruction, hnswEfSearch);
+            case "pq":
+                int m = pqSubspaces > 0 ? pqSubspaces : store.dim / 2;
+                return new PQSearch(store, m, pqCentroids);
+            case "float":
+            case "int8":
+                return new QuantizedSearch(store, searchMethod);
+            case "auto":
+                return new QueryPlanner(this, store);
+            default:
+                return new LinearSearch(store);
+        }
     }
 
     /*
@@ -55,12 +234,7 @@ public class KNearestNeighbor {
             return -1;
         }
 
-        double sum = 0;
-        for (int i = 0; i< x.length; i++) {
-            sum += Math.pow((x[i] - y[i]), 2);
-        }
-
-        return Math.pow(sum, 1.0/2);
+        return Distance.euclidean(x, y);
     }
 
     /*
@@ -129,117 +303,328 @@ public class KNearestNeighbor {
 
         You can choose (see comments below)
             Majority voting OR weighted voting for classification
-            Weighted average OR Gaussian kernel for regression
+            Weighted average OR kernel (regressionMethod) for regression
      */
     public String classify(DataC[] dataSet, double[] query) {
-        DataC[] nearestNeighbors = new DataC[k];
-        double[][] distArray = new double[dataSet.length][2];
-
-        //fill distArray[i][0] w/ distance between query point and point i
-        //fill distArray[i][1] w/ id of point i
-        double dist;
-        int i= 0;
-        for (DataC d: dataSet) {
-            if (d != null) {
-                dist = getDistance(d.getFeatures(), query);
-                distArray[i][0] = dist;
-                distArray[i++][1] = d.getID();
+        //this.data reuses the model index (and the cache, if set)
+        if (dataSet == this.data && !this.isReducedData) {
+            if (this.classification) {
+                return String.valueOf(predictClass(query));
             }
+            return String.valueOf(predictValue(query));
         }
+        return classify(indexFor(dataSet), query);
+    }
 
-        //sort distances using this to sort 2D array
-        //https://stackoverflow.com/questions/4907683/sort-a-two-dimensional-array-based-on-one-column
-        Arrays.sort(distArray, new Comparator<double[]>(){
-            @Override
-            public int compare(double[] o1, double[] o2) {
-                Double dist1 = o1[0];
-                Double dist2 = o2[0];
-                return dist1.compareTo(dist2);
-            }
-        });
-
-        //fill nearestNeighbors[] and nearestDist[]
-        double[] nearestDist = new double[k];
-        int j= 0, n= 0;
-        while (n < nearestNeighbors.length) {
-            if (distArray[j][1] > 0) {
-                nearestDist[n] = distArray[j][1];
-                nearestNeighbors[n++] = data[(int) distArray[j][1]-1];
-            }
-            j++;
+    /*
+        Index over dataSet for classify(), built again only when
+        dataSet is replaced or an index setting changed
+     */
+    private synchronized NeighborSearch indexFor(DataC[] dataSet) {
+        if (dataSetIndex == null || dataSetIndexFor != dataSet || !dataSetIndexSettings.sameIndexSettings(this)) {
+            dataSetIndexSettings = new KNearestNeighbor(this);
+            dataSetIndexSettings.data = new DataC[0];
+            dataSetIndexSettings.reducedData = null;
+            dataSetIndex = buildIndex(dataSet);
+            dataSetIndexFor = dataSet;
         }
+        return dataSetIndex;
+    }
 
-        String cl;
+    /*
+        True if every setting an index is built w/ is the same in other.
+        The query time ones (hnswEfSearch, ivfProbe) count too, a built
+        index is never changed in place.
+     */
+    boolean sameIndexSettings(KNearestNeighbor other) {
+        return searchMethod.contentEquals(other.searchMethod)
+                && recallTarget == other.recallTarget
+                && shards == other.shards && sharding.contentEquals(other.sharding)
+                && hnswM == other.hnswM
+                && hnswEfConstruction == other.hnswEfConstruction
+                && hnswEfSearch == other.hnswEfSearch
+                && numPivots == other.numPivots
+                && ivfLists == other.ivfLists
+                && ivfProbe == other.ivfProbe
+                && pqSubspaces == other.pqSubspaces
+                && pqCentroids == other.pqCentroids;
+    }
 
-        //CLASSIFICATION
+    /*
+        Same as classify(DataC[], double[]) but searches an index that
+        was already built over the training set with buildIndex()
+     */
+    public String classify(NeighborSearch index, double[] query) {
+        KNNParams params = getParams();
         if (this.classification) {
+            return String.valueOf(voteClass(index.search(query, params.k), labels()));
+        }
+        return String.valueOf(predictValue(searchKernel(index, query, params), params, labels()));
+    }
 
-            //WEIGHTED VOTING
-            double[] weightedVote = new double[numClasses + 2];
-            int max = -1;
-            int k = 1;
-            for (DataC nearestNeighbor : nearestNeighbors) {
-                String c = nearestNeighbor.getClassLabel();
-                int classLabel = Integer.parseInt(c);
-                weightedVote[classLabel] += ((double) 1 / k++);
-                if (weightedVote[classLabel] > max) {
-                    max = classLabel;
-                }
-            }
+    /*
+        Class of query using this.data (and reducedData) as the training set
+     */
+    public int predictClass(double[] query) {
+        return currentModel().predictClass(query);
+    }
 
-            //OR ---> MAJORITY VOTING
-            //UNCOMMENT BELOW, COMMENT ABOVE FOR MAJORITY VOTING
-
-            //take majority of nearest neighbor classes as max
-            //w/ int vote[] where it increments vote[classNo]
-//            int[] vote = new int[numClasses+2];
-//            int max = -1;
-//            for (DataC nearestNeighbor : nearestNeighbors) {
-//                int classLabel = Integer.parseInt(nearestNeighbor.getClassLabel());
-//                vote[classLabel]++;
-//                if (vote[classLabel] > max) {
-//                    max = classLabel;
-//                }
-//            }
+    /*
+        Response value of query using this.data (and reducedData) as the
+        training set
+     */
+    public double predictValue(double[] query) {
+        return currentModel().predictValue(query);
+    }
 
-            cl = String.valueOf(max);
+    /*
+        Settings besides k, epsilon and sigma that change a prediction,
+        part of the QueryCache key
+     */
+    String predictionMode() {
+        if (this.classification) {
+            return "class";
+        }
+        if (isKernelRegression()) {
+            return "kernel " + kernel + " " + kernelSupport;
+        }
+        return "weighted";
+    }
 
+    /*
+        Builds a snapshot of the current data, reducedData and settings
+        and atomically replaces the published one. Called at the end of
+        tune(), editDataSet(), condenseDataSet() and the clustering
+        reductions; call it after changing the fields by hand.
+     */
+    public KNNModel publish() {
+        return publish(null, null);
+    }
+
+    /*
+        publish() w/ the rows of data + reducedData already in store and
+        an index built over it (both null to build them)
+     */
+    KNNModel publish(DataStore store, NeighborSearch index) {
+        KNNModel next = new KNNModel(this, modelVersion.incrementAndGet(), model.get(), store, index);
+        if (cache != null) {
+            cache.invalidate();     //cached predictions came from the old snapshot
         }
+        model.set(next);
+        return next;
+    }
 
-        //REGRESSION
-        else {
+    /*
+        Coordinator mode: the training set lives on shards (RemoteShards
+        of ShardServers) and this JVM keeps only its labels (see
+        Labels.read()). Publishes a model that searches all shards at
+        once and votes / averages here; data is not used until
+        useShards(null, null) switches back to the local training set.
+     */
+    public KNNModel useShards(NeighborSearch[] shards, Labels labels) {
+        this.remoteShards = shards;
+        this.remoteLabels = labels;
+        return publish();
+    }
+
+    /*
+        The published snapshot, for serving predictions on any number
+        of threads. Never blocks and never sees a half built model.
+     */
+    public KNNModel getModel() {
+        KNNModel current = model.get();
+        if (current == null) {
+            model.compareAndSet(null, new KNNModel(this, modelVersion.incrementAndGet(), null));
+            current = model.get();
+        }
+        return current;
+    }
+
+    /*
+        The published snapshot, published again first if the fields were
+        changed by hand since (single threaded convenience for
+        predictClass() / predictValue() and ModelFile.save())
+     */
+    KNNModel currentModel() {
+        KNNModel current = getModel();
+        return current.isStale(this) ? publish() : current;
+    }
+
+    /*
+        Labels of this.data, parsed again only when data is replaced
+     */
+    public Labels labels() {
+        if (labels == null || labelsFor != this.data) {
+            labels = new Labels(this.data, this.classification);
+            labelsFor = this.data;
+        }
+        return labels;
+    }
+
+    /*
+        Streaming mode: a SlidingWindow training set w/ this model's
+        settings, that keeps the last maxRows rows and (if maxAge > 0)
+        only those added in the last maxAge time units
+     */
+    public SlidingWindow stream(int dim, int maxRows, long maxAge) {
+        return new SlidingWindow(this, dim, maxRows, maxAge);
+    }
+
+    /*
+        Bulk scoring: predicts every row of inFile (parsed like DataSetUp
+        w/ classPos) w/ the published model on parallelism threads and
+        writes "id,prediction" lines to outFile in input order.
+        Returns the number of rows scored.
+     */
+    public long scoreFile(String inFile, String outFile, String classPos) throws IOException {
+        return new BulkScorer(currentModel(), classPos, parallelism).score(inFile, outFile);
+    }
+
+    public boolean isKernelRegression() {
+        return !this.classification && this.regressionMethod.contentEquals("kernel");
+    }
+
+    /*
+        Neighbors inside the kernel support of query (or the k nearest if
+        the support is empty) for kernel regression, otherwise the k nearest
+     */
+    public Neighbors searchKernel(NeighborSearch index, double[] query, KNNParams params) {
+        if (!isKernelRegression()) {
+            return index.search(query, params.k);
+        }
+
+        Neighbors nn = index.searchRadius(query, kernelSupport * params.sigma);
+        if (nn.size == 0) {
+            nn = index.search(query, params.k);
+        }
+        return nn;
+    }
 
-            //WEIGHTED AVERAGE
+    /*
+        Response value for a query from its neighbors. Uses kernel
+        regression when regressionMethod is "kernel", otherwise the
+        weighted average of the params.k closest.
+     */
+    public double predictValue(Neighbors nn, KNNParams params, Labels labels) {
+        if (isKernelRegression()) {
+            //GAUSSIAN / EPANECHNIKOV KERNEL - only neighbors inside the support count
+            double radius = kernelSupport * params.sigma;
             double weightedAvg= 0;
             double weightSum= 0;
-            int c= 0;
-            for (DataC d: nearestNeighbors) {
-                double responseVar = Double.parseDouble(d.getClassLabel());
-                weightedAvg += (responseVar / nearestDist[c]);
-                weightSum += (1 / nearestDist[c++]);
+            for (int n= 0; n< nn.size && nn.dists[n] < radius; n++) {
+                double weight = kernelWeight(nn.dists[n], params.sigma);
+                weightedAvg += weight * labels.values[nn.ids[n]-1];
+                weightSum += weight;
+            }
+
+            if (weightSum > 0) {
+                return weightedAvg / weightSum;
             }
+        }
 
-            weightedAvg /= weightSum;
+        return voteValue(nn.first(params.k), labels);
+    }
+
+    /*
+        Kernel weight of a neighbor at distance dist, 0 outside of
+        kernelSupport * sigma
+     */
+    public double kernelWeight(double dist, double sigma) {
+        double u = dist / sigma;
+        if (u >= kernelSupport) {
+            return 0;
+        }
+
+        switch (kernel) {
+            case "epanechnikov":
+                double t = u / kernelSupport;
+                return 1 - t * t;
+            default:
+                return Math.exp(-(u * u) / 2);
+        }
+    }
 
+    /*
+        Turns the nearest neighbors of a query into a class (weighted
+        vote) or a response value (weighted average)
+     */
+    public String vote(Neighbors nn) {
+        if (this.classification) {
+            return String.valueOf(voteClass(nn, labels()));
+        }
+        return String.valueOf(voteValue(nn, labels()));
+    }
 
-            //OR --> GAUSSIAN KERNEL
-            //UNCOMMENT BELOW, COMMENT ABOVE FOR GAUSSIAN KERNEL
+    /*
+        CLASSIFICATION - class of the nearest neighbors
+     */
+    public int voteClass(Neighbors nn, Labels labels) {
+
+        //WEIGHTED VOTING
+        double[] weightedVote = new double[numClasses + 2];
+        int max = -1;
+        int k = 1;
+        for (int n= 0; n< nn.size; n++) {
+            int classLabel = labels.classes[nn.ids[n]-1];
+            weightedVote[classLabel] += ((double) 1 / k++);
+            if (weightedVote[classLabel] > max) {
+                max = classLabel;
+            }
+        }
 
-//            double weightedAvg = 0;
-//            double weightSum = 0;
-//            int c = 0;
-//            for (DataC d: nearestNeighbors) {
-//                double responseVar = Double.parseDouble(d.getClassLabel());
-//                weightedAvg += (responseVar * kernelFunc(d.getFeatures(), query));
-//                weightSum += kernelFunc(d.getFeatures(), query);
+        //OR ---> MAJORITY VOTING
+        //UNCOMMENT BELOW, COMMENT ABOVE FOR MAJORITY VOTING
+
+        //take majority of nearest neighbor classes as max
+        //w/ int vote[] where it increments vote[classNo]
+//        int[] vote = new int[numClasses+2];
+//        int max = -1;
+//        for (int n= 0; n< nn.size; n++) {
+//            int classLabel = labels.classes[nn.ids[n]-1];
+//            vote[classLabel]++;
+//            if (vote[classLabel] > max) {
+//                max = classLabel;
 //            }
-//
-//            weightedAvg /= weightSum;
+//        }
+
+        return max;
+    }
+
+    /*
+        REGRESSION - average of the nearest neighbors weighted by 1 / distance.
+        Neighbors at distance 0 (the query is a training row) would get
+        an infinite weight, so then only they are averaged.
+     */
+    public double voteValue(Neighbors nn, Labels labels) {
+
+        //EXACT MATCHES
+        double exactSum= 0;
+        int exact= 0;
+        for (int n= 0; n< nn.size && nn.dists[n] == 0; n++) {
+            exactSum += labels.values[nn.ids[n]-1];
+            exact++;
+        }
+        if (exact > 0) {
+            return exactSum / exact;
+        }
 
-            cl = String.valueOf(weightedAvg);
+        //WEIGHTED AVERAGE
+        double weightedAvg= 0;
+        double weightSum= 0;
+        for (int n= 0; n< nn.size; n++) {
+            double responseVar = labels.values[nn.ids[n]-1];
+            double nearestDist = nn.dists[n];
+            weightedAvg += (responseVar / nearestDist);
+            weightSum += (1 / nearestDist);
         }
 
-        return cl;
+        weightedAvg /= weightSum;
+
+
+        //OR --> GAUSSIAN KERNEL
+        //set regressionMethod = "kernel", see predictValue()
+
+        return weightedAvg;
     }
 
     /*
@@ -261,20 +646,62 @@ public class KNearestNeighbor {
 
      */
     public double[] loss(DataC[] dataSet, DataC[] testSet) {
+        return loss(dataSet, testSet, getParams(), labels());
+    }
+
+    /*
+        Same as loss(DataC[], DataC[]) w/ the hyperparameters in params and
+        neighbor labels looked up in labels. Reads no mutable fields, so
+        several folds can run at once.
+     */
+    public double[] loss(DataC[] dataSet, DataC[] testSet, KNNParams params, Labels labels) {
+        if (isKernelRegression()) {
+            NeighborSearch index = buildIndex(dataSet);
+            List<Neighbors> neighbors = new ArrayList<>();
+            for (DataC d : testSet) {
+                if (d != null) {
+                    neighbors.add(searchKernel(index, d.getFeatures(), params));
+                }
+            }
+            return score(testSet, neighbors.toArray(new Neighbors[0]), params, labels);
+        }
+        return score(testSet, searchAll(dataSet, testSet, params.k), params, labels);
+    }
+
+    /*
+        Builds an index over dataSet once and searches the k nearest
+        neighbors of every non-null row of testSet in one batch
+     */
+    public Neighbors[] searchAll(DataC[] dataSet, DataC[] testSet, int k) {
+        NeighborSearch index = buildIndex(dataSet);
+        List<double[]> queries = new ArrayList<>();
+        for (DataC d : testSet) {
+            if (d != null) {
+                queries.add(d.getFeatures());
+            }
+        }
+
+        return index.searchBatch(queries.toArray(new double[0][]), k);
+    }
+
+    /*
+        The loss stats of loss() given the neighbors of every non-null
+        row of testSet (in order). Neighbors lists longer than params.k
+        are cut to the params.k closest.
+     */
+    public double[] score(DataC[] testSet, Neighbors[] neighbors, KNNParams params, Labels labels) {
 
         int[][] confusionMatrix = new int[numClasses][numClasses];
         double[] performance = new double[3];
         int count= 0;
+        int q= 0;
 
         //CLASSIFICATION
         if (this.classification) {
             for (DataC d : testSet) {
                 if (d != null) {
-                    double[] test = d.getFeatures();
-                    String trueClass = d.getClassLabel();
-                    String guess = classify(dataSet, test);
-                    int guessNum = Integer.parseInt(guess) - 1;
-                    int trueNum = Integer.parseInt(trueClass) - 1;
+                    int guessNum = voteClass(neighbors[q++].first(params.k), labels) - 1;
+                    int trueNum = Integer.parseInt(d.getClassLabel()) - 1;
 
                     confusionMatrix[guessNum][trueNum]++;
                     if (guessNum == trueNum) {
@@ -337,14 +764,13 @@ public class KNearestNeighbor {
 
             for (DataC d: testSet) {
                 if (d != null) {
-                    double[] test = d.getFeatures();
                     double trueResponseVar = Double.parseDouble(d.getClassLabel());
-                    double guess = Double.parseDouble(classify(dataSet, test));
+                    double guess = predictValue(neighbors[q++], params, labels);
 
                     predicted[c] = guess;
                     actual[c++] = trueResponseVar;
 
-                    if (Math.abs(trueResponseVar - guess) < this.epsilon) {
+                    if (Math.abs(trueResponseVar - guess) < params.epsilon) {
                         count++;
                     }
                 }
@@ -383,55 +809,35 @@ public class KNearestNeighbor {
         int testLen = data.length - trainLen;
         System.out.println("Train: " + trainLen);
         System.out.println("Test:  " + testLen);
-        DataC[] train = new DataC[trainLen];
-        DataC[] test;
-        DataC[][] split = new DataC[10][testLen];
         double[] lossStats = new double[3];
 
-        //shuffle
-        List<DataC> temp = Arrays.asList(data);
-        Collections.shuffle(temp);
-        DataC[] shuffled = new DataC[data.length];
-        temp.toArray(shuffled);
+        DataC[][] split = splitFolds(testLen);
 
-        //split into 10 arrays
-        int c= 0;
-        for (int i= 0; i< 10; i++) {
-            for (int j= 0; j< testLen; j++) {
-                if (c >= data.length) {
-                    split[i][j] = null;
-                }
-                else {
-                    split[i][j] = shuffled[c++];
-                }
-            }
-        }
+        //cross-validate 10x, folds run in parallel on their own train[] and
+        //a snapshot of the fields they need
+        KNNParams params = getParams();
+        Labels labels = labels();
+        DataC[] reduced = this.isReducedData ? this.reducedData : new DataC[0];
+        List<ForkJoinTask<double[]>> folds = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
 
-        //cross-validate 10x
         for (int fold= 0; fold< 10; fold++) {
+            final int f = fold;
+            folds.add(pool.submit(() -> {
+                //train on f to (f+8)%10, test on (f+9)%10
+                return loss(trainFold(split, f, reduced), split[(f+9)%10], params, labels);
+            }));
+        }
 
-            //train fold to (fold+8)%10, test on (fold+9)%10
-            List<DataC> list = new ArrayList<>();
-            for (int i= 0; i< 9; i++) {
-                //add 1/10 of data to list 9 times
-                list.addAll(Arrays.asList(split[(i+fold)%10]));
-            }
-
-            if (this.isReducedData) {
-                list.addAll(Arrays.asList(this.reducedData));
-            }
-
-            //fill train[] and test[]
-            list.toArray(train);
-            test = split[(fold+9)%10];
-
-            //get loss data
+        //merge per fold loss data in fold order
+        for (ForkJoinTask<double[]> fold: folds) {
             int i = 0;
-            double[] lossTemp = loss(train, test);
+            double[] lossTemp = fold.join();
             for (double d: lossTemp) {
                 lossStats[i++] += d;
             }
         }
+        pool.shutdown();
 
         //average loss data
         int l = 0;
@@ -445,6 +851,51 @@ public class KNearestNeighbor {
         return lossStats;
     }
 
+    /*
+        Shuffles this.data and splits it into 10 arrays of testLen rows,
+        padded w/ null if data runs out
+     */
+    public DataC[][] splitFolds(int testLen) {
+        DataC[][] split = new DataC[10][testLen];
+
+        //shuffle a copy, data (and a snapshot built over it) keeps its order
+        List<DataC> temp = new ArrayList<>(Arrays.asList(data));
+        Collections.shuffle(temp);
+        DataC[] shuffled = new DataC[data.length];
+        temp.toArray(shuffled);
+
+        //split into 10 arrays
+        int c= 0;
+        for (int i= 0; i< 10; i++) {
+            for (int j= 0; j< testLen; j++) {
+                if (c >= data.length) {
+                    split[i][j] = null;
+                }
+                else {
+                    split[i][j] = shuffled[c++];
+                }
+            }
+        }
+
+        return split;
+    }
+
+    /*
+        Training set for a fold: split[fold] to split[(fold+8)%10] followed
+        by the reduced data (centroids / medoids), if any
+     */
+    public static DataC[] trainFold(DataC[][] split, int fold, DataC[] reduced) {
+        int testLen = split[0].length;
+        DataC[] train = new DataC[9 * testLen + reduced.length];
+        for (int i= 0; i< 9; i++) {
+            //add 1/10 of data 9 times
+            System.arraycopy(split[(i+fold)%10], 0, train, i * testLen, testLen);
+        }
+        System.arraycopy(reduced, 0, train, 9 * testLen, reduced.length);
+
+        return train;
+    }
+
     /*
         A little helper function to print loss
         metrics nicely.
@@ -464,63 +915,106 @@ public class KNearestNeighbor {
 
     /*
         Tune k, epsilon, sigma by random search.
-            Evaluate 10 different sets of hyperparameters
+            Evaluate 11 different sets of hyperparameters
             and choose the best.
 
         RANGES OF VALUES - defined by me
             k -> {1, 2, ..., 20}
             epsilon -> [0.3, 3]
             sigma -> [0.3, 3]
+
+        Neighbors are searched once per fold for k = 20 (see NeighborCache)
+        and every candidate is scored from that cache. For kernel
+        regression the cache also holds the neighbors inside the support
+        of the largest sigma sampled, so candidates are scored on the
+        same neighbors predictValue() uses.
      */
     public void tune() {
-        double[] bestParams = new double[3];
-        bestParams[0] = (int) (Math.random() * 20) + 1;     //initialize k
-        bestParams[1] = (Math.random() * 3) + 0.3;          //initialize epsilon
-        bestParams[2] = (Math.random() * 3) + 0.3;          //initialize sigma
-        this.k = (int)bestParams[0];
-        this.epsilon = bestParams[1];
-        this.sigma = bestParams[2];
+        tune(11, 11 * 10);
+    }
 
-        double lossMetricBest;
-        if (this.classification) {
-            //use F1 for classification
-            lossMetricBest = crossValidate()[2];
-        }
-        else {
-            //use RSME for regression
-            lossMetricBest = crossValidate()[0];
+    /*
+        Random search w/ racing over numCandidates sets of hyperparameters,
+        using at most budget fold evaluations.
+
+        All surviving candidates are scored one fold at a time. After each
+        fold every candidate is compared w/ the leader on the folds both
+        were scored on, by a one sided paired t-test on the per fold
+        differences of F1 (classification) or RSME (regression) at
+        level RACE_ALPHA. A candidate that is significantly worse is
+        dropped and stops paying for the remaining folds.
+     */
+    public void tune(int numCandidates, int budget) {
+        double[][] params = new double[numCandidates][3];
+        double maxSigma = this.sigma;
+        for (double[] p: params) {
+            p[0] = (int) (Math.random() * 20) + 1;
+            p[1] = (Math.random() * 3) + 0.3;
+            p[2] = (Math.random() * 3) + 0.3;
+            maxSigma = Math.max(maxSigma, p[2]);
         }
 
-        for (int i= 0; i< 10; i++) {
-            double[] newParams = new double[3];
-            newParams[0] = (int) (Math.random() * 20) + 1;
-            newParams[1] = (Math.random() * 3) + 0.3;
-            newParams[2] = (Math.random() * 3) + 0.3;
+        NeighborCache cache = new NeighborCache(this, 20, maxSigma);
 
-            this.k = (int) newParams[0];
-            this.epsilon = newParams[1];
-            this.sigma = newParams[2];
+        //higher is better, so RSME is negated
+        double[][] scores = new double[numCandidates][10];
+        double[] sum = new double[numCandidates];
+        int[] folds = new int[numCandidates];
+        boolean[] alive = new boolean[numCandidates];
+        Arrays.fill(alive, true);
+        int evaluations = 0;
 
-            double lossMetric;
-            if (this.classification) {
-                //use F1 for classification
-                lossMetric = crossValidate()[2];
-                if (lossMetric > lossMetricBest) {
-                    bestParams = newParams;
-                    lossMetricBest = lossMetric;
+        for (int fold= 0; fold< 10 && evaluations < budget; fold++) {
+            for (int c= 0; c< numCandidates && evaluations < budget; c++) {
+                if (!alive[c]) {
+                    continue;
+                }
+
+                KNNParams p = new KNNParams((int) params[c][0], params[c][1], params[c][2]);
+                double[] stats = cache.foldLoss(fold, p);
+                double score = this.classification ? stats[2] : -stats[0];
+                if (Double.isNaN(score)) {
+                    score = this.classification ? 0 : -Double.MAX_VALUE;
+                }
+
+                scores[c][fold] = score;
+                sum[c] += score;
+                folds[c]++;
+                evaluations++;
+            }
+
+            //race - drop candidates that are significantly worse than the leader
+            int leader = -1;
+            for (int c= 0; c< numCandidates; c++) {
+                if (alive[c] && folds[c] > 0 && (leader == -1 || sum[c] / folds[c] > sum[leader] / folds[leader])) {
+                    leader = c;
                 }
             }
-            else {
-                //use RSME for regression
-                lossMetric = crossValidate()[0];
-                if (lossMetric < lossMetricBest) {
-                    bestParams = newParams;
-                    lossMetricBest = lossMetric;
+            for (int c= 0; c< numCandidates; c++) {
+                if (alive[c] && c != leader && isRaceLoser(scores[leader], scores[c], Math.min(folds[leader], folds[c]))) {
+                    alive[c] = false;
                 }
             }
+        }
 
+        //best mean among the survivors scored on the most folds
+        int mostFolds = 0;
+        for (int c= 0; c< numCandidates; c++) {
+            if (alive[c]) {
+                mostFolds = Math.max(mostFolds, folds[c]);
+            }
+        }
+        int best = 0;
+        double lossMetricBest = Double.NEGATIVE_INFINITY;
+        for (int c= 0; c< numCandidates; c++) {
+            if (alive[c] && folds[c] == mostFolds && mostFolds > 0 && sum[c] / folds[c] > lossMetricBest) {
+                lossMetricBest = sum[c] / folds[c];
+                best = c;
+            }
         }
+        double[] bestParams = params[best];
 
+        System.out.println("Evaluations:  "+ evaluations + " / " + budget);
         System.out.println("Best k:       "+ bestParams[0]);
         System.out.println("Best epsilon: "+ bestParams[1]);
         System.out.println("Best sigma:   "+ bestParams[2]);
@@ -528,58 +1022,158 @@ public class KNearestNeighbor {
             System.out.println("F1 score:     " + lossMetricBest);
         }
         else {
-            System.out.println("RSME:         " + lossMetricBest);
+            System.out.println("RSME:         " + -lossMetricBest);
         }
 
         this.k = (int) bestParams[0];
         this.epsilon = bestParams[1];
         this.sigma = bestParams[2];
+        publish();
+    }
+
+    //one sided 95% quantiles of Student's t w/ 1 to 9 degrees of freedom
+    private static final double[] RACE_T = {6.314, 2.920, 2.353, 2.132, 2.015, 1.943, 1.895, 1.860, 1.833};
+
+    /*
+        Paired t-test for tune(): true if the fold scores of candidate are
+        significantly lower than those of leader on the first n folds
+     */
+    static boolean isRaceLoser(double[] leader, double[] candidate, int n) {
+        if (n < 2) {
+            return false;
+        }
+
+        double mean= 0;
+        for (int f= 0; f< n; f++) {
+            mean += leader[f] - candidate[f];
+        }
+        mean /= n;
+
+        double var= 0;
+        for (int f= 0; f< n; f++) {
+            double d = leader[f] - candidate[f] - mean;
+            var += d * d;
+        }
+        var /= n - 1;
+
+        if (mean <= 0) {
+            return false;
+        }
+        if (var == 0) {
+            return true;        //worse on every fold by the same amount
+        }
+        return mean / Math.sqrt(var / n) > RACE_T[Math.min(n - 1, RACE_T.length) - 1];
+    }
+
+    /*
+        Grid search over every k in {1, ..., kMax} w/ the current epsilon
+        and sigma. One neighbor search per fold covers the whole grid.
+     */
+    public void tuneK(int kMax) {
+        NeighborCache cache = new NeighborCache(this, kMax);
+        int bestK = 1;
+        double lossMetricBest = this.classification ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+
+        for (int k= 1; k<= kMax; k++) {
+            double[] stats = cache.crossValidate(new KNNParams(k, this.epsilon, this.sigma));
+
+            //F1 for classification, RSME for regression
+            if (this.classification ? stats[2] > lossMetricBest : stats[0] < lossMetricBest) {
+                lossMetricBest = this.classification ? stats[2] : stats[0];
+                bestK = k;
+            }
+        }
+
+        System.out.println("Best k:       "+ bestK);
+        this.k = bestK;
+        publish();
     }
 
     /*
         EDITED KNN
         Continue removing bad / useless samples that classify incorrectly
         until no more are removed.
+
+        The k nearest neighbor graph of the data is built once (see KNNGraph).
+        Every row is judged against the rows left at the start of the pass.
+        After a pass only the rows that lost a neighbor are repaired and
+        judged again, instead of classifying the whole set every pass.
+        Regression rows are judged w/ predictValue(), so w/ kernel
+        regression when regressionMethod is "kernel"; the kernel
+        neighborhoods are not in the graph, so then every row left is
+        judged again after a pass that deleted rows.
      */
     public void editDataSet() {
-        List<DataC> editedSet = Arrays.asList(this.data);
-        boolean dataDeleted;
+        DataC[] editedSetArr = this.data;
+        KNNGraph graph = new KNNGraph(this, editedSetArr, k);
+        Labels labels = labels();
+        KNNParams params = getParams();
+        boolean kernel = isKernelRegression();
+        boolean[] deleted = new boolean[editedSetArr.length];
+        int size = editedSetArr.length;
+
+        //first pass checks every row
+        int[] check = new int[editedSetArr.length];
+        for (int i= 0; i< check.length; i++) {
+            check[i] = i;
+        }
 
+        boolean dataDeleted;
         do {
-            DataC[] editedSetArr = new DataC[editedSet.size()];
-            editedSet.toArray(editedSetArr);
-            System.out.println(editedSet.size());
+            System.out.println(size);
 
-            int i = 0;
-            dataDeleted = false;
-            for (DataC d : editedSet) {
-                double trueClass = Double.parseDouble(d.getClassLabel());
-                double guess = Double.parseDouble(classify(editedSetArr, d.getFeatures()));
+            List<Integer> toDelete = new ArrayList<>();
+            for (int i : check) {
+                int id = editedSetArr[i].getID();
+                double trueClass = this.classification ? labels.classes[id-1] : labels.values[id-1];
+                double guess;
+                if (this.classification) {
+                    guess = voteClass(graph.neighbors(i), labels);
+                }
+                else {
+                    Neighbors nn = kernel ? graph.kernelNeighbors(this, i, params) : graph.neighbors(i);
+                    guess = predictValue(nn, params, labels);
+                }
 
                 if (this.classification) {
                     if (guess != trueClass) {
-                        editedSetArr[i] = null;
-                        dataDeleted = true;
+                        toDelete.add(i);
                     }
                 } else {
                     if (Math.abs(trueClass - guess) > this.epsilon) {
-                        editedSetArr[i] = null;
-                        dataDeleted = true;
+                        toDelete.add(i);
                     }
                 }
-                i++;
             }
 
-            List<DataC> list = new ArrayList<>();
-            for (DataC d : editedSetArr) {
-                if (d != null) {
-                    list.add(d);
+            int[] removed = new int[toDelete.size()];
+            for (int i= 0; i< removed.length; i++) {
+                removed[i] = toDelete.get(i);
+                deleted[removed[i]] = true;
+            }
+            size -= removed.length;
+            dataDeleted = removed.length > 0;
+
+            //re-check only rows whose neighbor lists changed (all rows left for kernel)
+            check = dataDeleted ? graph.remove(removed) : new int[0];
+            if (dataDeleted && kernel) {
+                check = new int[size];
+                int c= 0;
+                for (int i= 0; i< deleted.length; i++) {
+                    if (!deleted[i]) {
+                        check[c++] = i;
+                    }
                 }
             }
-
-            editedSet = list;
         } while (dataDeleted);
 
+        List<DataC> editedSet = new ArrayList<>();
+        for (int i= 0; i< editedSetArr.length; i++) {
+            if (!deleted[i]) {
+                editedSet.add(editedSetArr[i]);
+            }
+        }
+
         this.data = new DataC[editedSet.size()];
         editedSet.toArray(this.data);
 
@@ -588,63 +1182,111 @@ public class KNearestNeighbor {
         for (DataC d: this.data) {
             d.setID(i++);
         }
+        publish();
     }
 
     /*
         CONDENSED KNN
         Select the smallest subset Z of this.data such that
         using Z in place of this.data does not degrade performance
+
+        Z is kept in a PrototypeTree that grows as rows are added. Each
+        pass walks the rows in a new random order in batches: the nearest
+        prototype of every row in a batch is found in parallel, then the
+        batch is settled in order, also checking the prototypes added
+        earlier in the same batch. The result is the same as adding rows
+        one at a time in that order.
      */
     public void condenseDataSet() {
+        DataC[] rows = this.data;
+        int n = rows.length;
+        int batchSize = 1024;
+        PrototypeTree tree = new PrototypeTree(this.data[0].getFeatures().length);
         List<DataC> condensedSet = new ArrayList<>();
-        DataC[] condensedArr = this.data;
-        int rand = (int)(Math.random()*this.data.length);
+        boolean[] inSet = new boolean[n];
+
+        int rand = (int)(Math.random()*n);
+        tree.add(this.data[rand].getFeatures());
         condensedSet.add(this.data[rand]);
-        condensedArr[rand] = null;
+        inSet[rand] = true;
+
+        int[] order = new int[n];
+        for (int i= 0; i< n; i++) {
+            order[i] = i;
+        }
+        Random random = new Random();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
 
         boolean changed = true;
 
         //REPEAT while samples are being added to condensedSet
-        while(changed && condensedSet.size() < this.data.length) {
+        while(changed && condensedSet.size() < n) {
             changed = false;
 
-            //shuffle condensed arr
-            List<DataC> temp = Arrays.asList(condensedArr);
-            Collections.shuffle(temp);
-            DataC[] shuffled = new DataC[data.length];
-            temp.toArray(shuffled);
-            condensedArr = shuffled;
+            //shuffle the visiting order in place
+            for (int i= n - 1; i> 0; i--) {
+                int j = random.nextInt(i + 1);
+                int temp = order[i];
+                order[i] = order[j];
+                order[j] = temp;
+            }
 
-            //for each d in the data set, find d' in Z s.t. it is the closest neighbor of d
-            //if class(d) != class(d') add d to condensedSet
-            for (DataC d: condensedArr) {
-                double minDist = Double.POSITIVE_INFINITY;
-                DataC min = null;
-                double dist;
+            for (int b0= 0; b0< n; b0+= batchSize) {
+                int b1 = Math.min(b0 + batchSize, n);
+
+                //nearest prototype of every row in the batch, in parallel
+                int[] nearest = new int[b1 - b0];
+                double[] nearestDist = new double[b1 - b0];
+                List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                final int start = b0;
+                for (int c0= b0; c0< b1; c0+= 64) {
+                    final int from = c0;
+                    final int to = Math.min(c0 + 64, b1);
+                    tasks.add(pool.submit(() -> {
+                        double[] dist = new double[1];
+                        for (int i= from; i< to; i++) {
+                            if (!inSet[order[i]]) {
+                                nearest[i - start] = tree.nearest(rows[order[i]].getFeatures(), dist);
+                                nearestDist[i - start] = dist[0];
+                            }
+                        }
+                    }));
+                }
+                for (ForkJoinTask<?> task: tasks) {
+                    task.join();
+                }
 
-                if (d != null) {
-                    for (DataC x : condensedSet) {
-                        dist = getDistance(d.getFeatures(), x.getFeatures());
+                //settle the batch in order, prototypes added in this batch may be closer
+                int batchStart = tree.size();
+                for (int i= b0; i< b1; i++) {
+                    DataC d = this.data[order[i]];
+                    if (inSet[order[i]]) {
+                        continue;
+                    }
 
+                    int min = nearest[i - b0];
+                    double minDist = nearestDist[i - b0];
+                    for (int p= batchStart; p< tree.size(); p++) {
+                        double dist = Distance.squaredEuclidean(condensedSet.get(p).getFeatures(), d.getFeatures(), minDist);
                         if (dist < minDist) {
                             minDist = dist;
-                            min = x;
+                            min = p;
                         }
                     }
-                }
 
-                if (min != null) {
-                    if (!d.getClassLabel().contentEquals(min.getClassLabel())) {
+                    //if class(d) != class(d') add d to condensedSet
+                    if (!d.getClassLabel().contentEquals(condensedSet.get(min).getClassLabel())) {
+                        tree.add(d.getFeatures());
                         condensedSet.add(d);
+                        inSet[order[i]] = true;
                         changed = true;
                     }
-                    d = null;
                 }
-
             }
 //            System.out.println("Size of condensed: "+ condensedSet.size());
 
         }
+        pool.shutdown();
 
         this.data = new DataC[condensedSet.size()];
         condensedSet.toArray(this.data);
@@ -654,6 +1296,7 @@ public class KNearestNeighbor {
         for (DataC d: this.data) {
             d.setID(i++);
         }
+        publish();
     }
 
     /*
@@ -672,6 +1315,7 @@ public class KNearestNeighbor {
         for (DataC d: this.reducedData) {
             d.setID(i++);
         }
+        publish();
     }
 
     /*
@@ -690,6 +1334,7 @@ public class KNearestNeighbor {
         for (DataC d: this.reducedData) {
             d.setID(i++);
         }
+        publish();
     }
 
     /*
@@ -714,6 +1359,7 @@ public class KNearestNeighbor {
         DataSetUp gdSetUp = new DataSetUp(gdFileName, "end","classification", false);
 
         KNearestNeighbor glassKNN = new KNearestNeighbor(gdSetUp.getAllData(), 7, true);
+//        glassKNN.searchMethod = "kdtree";
 
 //        glassKNN.editDataSet();       //<-- BEST BY FAR
 //        glassKNN.condenseDataSet();   //<--ALL STATS ARE BAD W/ GLASS (slightly better)
@@ -0,0 +1,121 @@
+package project_2;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/*
+    Class labels / response values of a training set parsed once into
+    primitive arrays, so predictions never parse a String label.
+
+    Indexed by DataC id - 1, the same way classify() looks up neighbors.
+ */
+public class Labels {
+
+    public final int[] classes;     //classification
+    public final double[] values;   //regression
+
+    /*
+        Labels filled in by the caller (see SlidingWindow)
+     */
+    public Labels(int[] classes, double[] values) {
+        this.classes = classes;
+        this.values = values;
+    }
+
+    /*
+        Labels of the rows of store that came from the first slots
+        positions of its DataC[] (a KNNModel's data, not reducedData)
+     */
+    public Labels(DataStore store, int slots, boolean classification) {
+        int maxID = 0;
+        for (int r= 0; r< store.size; r++) {
+            if (store.slot[r] < slots) {
+                maxID = Math.max(maxID, store.ids[r]);
+            }
+        }
+
+        this.classes = new int[classification ? maxID : 0];
+        this.values = new double[classification ? 0 : maxID];
+
+        for (int r= 0; r< store.size; r++) {
+            if (store.slot[r] < slots) {
+                if (classification) {
+                    classes[store.ids[r]-1] = Integer.parseInt(store.classLabels[r]);
+                }
+                else {
+                    values[store.ids[r]-1] = Double.parseDouble(store.classLabels[r]);
+                }
+            }
+        }
+    }
+
+    public Labels(DataC[] rows, boolean classification) {
+        int maxID = 0;
+        for (DataC d: rows) {
+            if (d != null) {
+                maxID = Math.max(maxID, d.getID());
+            }
+        }
+
+        this.classes = new int[classification ? maxID : 0];
+        this.values = new double[classification ? 0 : maxID];
+
+        for (DataC d: rows) {
+            if (d != null && d.getID() > 0) {
+                if (classification) {
+                    classes[d.getID()-1] = Integer.parseInt(d.getClassLabel());
+                }
+                else {
+                    values[d.getID()-1] = Double.parseDouble(d.getClassLabel());
+                }
+            }
+        }
+    }
+
+    /*
+        Labels of every row of a data file, for a coordinator whose
+        features live on ShardServers (see KNearestNeighbor.useShards()).
+        Streams the file and keeps no features; ids are line numbers like
+        the workers use.
+     */
+    public static Labels read(String fileName, String classPos, boolean classification) throws IOException {
+        Reader reader = new Reader(classification);
+        ShardServer.readRows(fileName, classPos, classification ? "classification" : "regression", reader);
+        return new Labels(Arrays.copyOf(reader.classes, classification ? reader.maxID : 0),
+                Arrays.copyOf(reader.values, classification ? 0 : reader.maxID));
+    }
+
+    /*
+        Collects the labels of read() by id
+     */
+    private static class Reader implements Consumer<DataC> {
+        final boolean classification;
+        int[] classes;
+        double[] values;
+        int maxID;
+
+        Reader(boolean classification) {
+            this.classification = classification;
+            this.classes = new int[classification ? 1024 : 0];
+            this.values = new double[classification ? 0 : 1024];
+        }
+
+        public void accept(DataC d) {
+            int i = d.getID() - 1;
+            maxID = Math.max(maxID, i + 1);
+            if (classification) {
+                if (i >= classes.length) {
+                    classes = Arrays.copyOf(classes, Math.max(2 * classes.length, i + 1));
+                }
+                classes[i] = Integer.parseInt(d.getClassLabel());
+            }
+            else {
+                if (i >= values.length) {
+                    values = Arrays.copyOf(values, Math.max(2 * values.length, i + 1));
+                }
+                values[i] = Double.parseDouble(d.getClassLabel());
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package project_2;
+
+/*
+    Brute force search strategy. Scans every row of the training set
+    and keeps the k nearest in a bounded max-heap (see TopK), so a
+    query costs O(nlog(k)) instead of sorting all n distances.
+
+    The squared distance of a row is abandoned as soon as its running
+    sum passes the current kth best.
+
+    searchBatch() answers a whole test fold at once in cache sized tiles
+    of queries x rows using ||x||^2 + ||y||^2 - 2x.y with precomputed
+    norms, so each tile of training rows is loaded once per block of
+    queries instead of once per query.
+ */
+public class LinearSearch implements NeighborSearch {
+
+    //~32KB of training rows and a block of queries per tile
+    private static final int TILE_BYTES = 32 * 1024;
+    private static final int QUERY_BLOCK = 32;
+
+    private int dim;
+    private double[] points;        //features of the DataStore, not a copy
+    private double[] norms;         //squared norm of each row
+    private int[] ids;
+    private int[] position;         //row of dataSet[i], -1 if not indexed
+    private boolean[] removed;
+
+    public LinearSearch(DataC[] dataSet) {
+        //rows w/o a valid id are never returned as neighbors
+        this(new DataStore(dataSet));
+    }
+
+    /*
+        Scans the rows of store in place
+     */
+    public LinearSearch(DataStore store) {
+        dim = store.dim;
+        points = store.features;
+        ids = store.ids;
+        position = store.position;
+        removed = new boolean[store.size];
+
+        norms = new double[store.size];
+        for (int r= 0; r< store.size; r++) {
+            norms[r] = Distance.dot(points, r * dim, points, r * dim, dim);
+        }
+    }
+
+    public Neighbors search(double[] query, int k) {
+        TopK best = new TopK(k);
+
+        if (query.length == dim) {
+            for (int r= 0; r< ids.length; r++) {
+                if (!removed[r]) {
+                    double bound = best.bound();
+                    double dist = Distance.squaredEuclidean(points, r * dim, query, bound);
+                    if (dist < bound) {
+                        best.offer(dist, ids[r]);
+                    }
+                }
+            }
+        }
+
+        return best.toNeighbors();
+    }
+
+    public Neighbors searchRadius(double[] query, double radius) {
+        TopK inside = TopK.unbounded();
+        double bound = radius * radius;
+
+        if (query.length == dim) {
+            for (int r= 0; r< ids.length; r++) {
+                if (!removed[r]) {
+                    double dist = Distance.squaredEuclidean(points, r * dim, query, bound);
+                    if (dist < bound) {
+                        inside.offer(dist, ids[r]);
+                    }
+                }
+            }
+        }
+
+        return inside.toNeighbors();
+    }
+
+    public Neighbors[] searchBatch(double[][] queries, int k) {
+        int n = ids.length;
+        int rowBlock = Math.max(16, TILE_BYTES / (8 * Math.max(dim, 1)));
+
+        TopK[] best = new TopK[queries.length];
+        double[] queryNorms = new double[queries.length];
+        for (int q= 0; q< queries.length; q++) {
+            best[q] = new TopK(k);
+            queryNorms[q] = Distance.dot(queries[q], queries[q]);
+        }
+
+        for (int q0= 0; q0< queries.length; q0+= QUERY_BLOCK) {
+            int q1 = Math.min(q0 + QUERY_BLOCK, queries.length);
+
+            for (int r0= 0; r0< n; r0+= rowBlock) {
+                int r1 = Math.min(r0 + rowBlock, n);
+
+                //tile: queries[q0..q1) x rows[r0..r1)
+                for (int q= q0; q< q1; q++) {
+                    double[] query = queries[q];
+                    if (query.length != dim) {
+                        continue;
+                    }
+                    TopK heap = best[q];
+
+                    for (int r= r0; r< r1; r++) {
+                        if (removed[r]) {
+                            continue;
+                        }
+
+                        double dist = queryNorms[q] + norms[r] - 2 * Distance.dot(points, r * dim, query);
+                        if (dist < 0) {
+                            dist = 0;   //rounding when x ~= y
+                        }
+                        if (dist < heap.bound()) {
+                            heap.offer(dist, ids[r]);
+                        }
+                    }
+                }
+            }
+        }
+
+        Neighbors[] nn = new Neighbors[queries.length];
+        for (int q= 0; q< queries.length; q++) {
+            nn[q] = best[q].toNeighbors();
+        }
+
+        return nn;
+    }
+
+    public void remove(int i) {
+        if (position[i] >= 0) {
+            removed[position[i]] = true;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package project_2;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+    Saves a prepared KNearestNeighbor (edited / condensed data,
+    reducedData, tuned k / epsilon / sigma, settings and the built
+    index) to a binary file and loads it back, so a service can start
+    w/o parsing the CSV, reducing the data set and tuning again.
+
+    Everything is taken from the published KNNModel (published again
+    first if the fields changed since, like predictClass() does), never
+    from the live fields, so the rows, settings and index always match.
+
+    Layout (big endian, as written by DataOutputStream):
+        int MAGIC, int FORMAT_VERSION
+        settings        the KNNModel's settings, in the order of save()
+        rows            data
+        rows            reducedData, or int -1 if there is none
+        index           String kind ("kdtree", "hnsw" or "none") + its arrays
+    where rows = int n, int dim, n * (int id, boolean has label, String label
+    if it has one), n * dim doubles from the snapshot's DataStore (rows w/o a valid id are not in it; a
+    "pq" snapshot keeps no store, its rows are taken from data again).
+
+    load() memory-maps the file and copies the features of data and
+    reducedData out of the mapping in bulk, straight into the one
+    DataStore the loaded snapshot and its index use; the DataC rows of
+    data / reducedData are made from that store. The KDTree and HNSW indexes are stored w/o their features,
+    which are read from the rows. The others are cheap to build again
+    on load; the k-means of "ivf" and "pq" is seeded, so the rebuilt
+    index gives the same answers as the saved one.
+ */
+public class ModelFile {
+
+    static final int MAGIC = 0x4B4E4E4D;        //"KNNM"
+    static final int FORMAT_VERSION = 3;
+
+    /*
+        Writes knn's published snapshot to fileName (through a temporary
+        file, so a reader never sees a half written model)
+     */
+    public static void save(KNearestNeighbor knn, String fileName) throws IOException {
+        KNNModel model = knn.currentModel();
+        if (model.isRemote()) {
+            throw new IOException("a model on remote shards has no rows to save");
+        }
+        KNearestNeighbor settings = model.settings();
+        DataStore store = model.rows();
+        if (store == null) {
+            throw new IOException("the rows of this \"pq\" model are no longer in memory");
+        }
+        Path target = Paths.get(fileName);
+        Path tmp = Paths.get(fileName + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+
+            out.writeBoolean(settings.classification);
+            out.writeInt(settings.numClasses);
+            out.writeInt(model.params.k);
+            out.writeDouble(model.params.epsilon);
+            out.writeDouble(model.params.sigma);
+            out.writeUTF(settings.searchMethod);
+            out.writeDouble(settings.recallTarget);
+            out.writeInt(settings.hnswM);
+            out.writeInt(settings.hnswEfConstruction);
+            out.writeInt(settings.hnswEfSearch);
+            out.writeInt(settings.numPivots);
+            out.writeInt(settings.ivfLists);
+            out.writeInt(settings.ivfProbe);
+            out.writeInt(settings.pqSubspaces);
+            out.writeInt(settings.pqCentroids);
+            out.writeInt(settings.shards);
+            out.writeUTF(settings.sharding);
+            out.writeUTF(settings.regressionMethod);
+            out.writeUTF(settings.kernel);
+            out.writeDouble(settings.kernelSupport);
+
+            int dataRows = model.dataRows(store);
+            writeRows(out, store, 0, dataRows);
+            if (model.hasReducedData()) {
+                writeRows(out, store, dataRows, store.size);
+            }
+            else {
+                out.writeInt(-1);
+            }
+
+            NeighborSearch index = model.getIndex();
+            if (index instanceof KDTree) {
+                out.writeUTF("kdtree");
+                ((KDTree) index).write(out);
+            }
+            else if (index instanceof HNSW) {
+                out.writeUTF("hnsw");
+                ((HNSW) index).write(out);
+            }
+            else {
+                out.writeUTF("none");
+            }
+        }
+
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+        A KNearestNeighbor w/ the data, settings and (published) index
+        saved in fileName
+     */
+    public static KNearestNeighbor load(String fileName) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(fileName + " is too large to map (" + channel.size() + " bytes)");
+            }
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (in.remaining() < 8 || in.getInt() != MAGIC) {
+            throw new IOException(fileName + " is not a saved KNN model");
+        }
+        int version = in.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException(fileName + " has model format " + version + ", expected " + FORMAT_VERSION);
+        }
+
+        boolean classification = in.get() != 0;
+        int numClasses = in.getInt();
+        KNearestNeighbor knn = new KNearestNeighbor(new DataC[0], numClasses, classification);
+        knn.k = in.getInt();
+        knn.epsilon = in.getDouble();
+        knn.sigma = in.getDouble();
+        knn.searchMethod = readUTF(in);
+        knn.recallTarget = in.getDouble();
+        knn.hnswM = in.getInt();
+        knn.hnswEfConstruction = in.getInt();
+        knn.hnswEfSearch = in.getInt();
+        knn.numPivots = in.getInt();
+        knn.ivfLists = in.getInt();
+        knn.ivfProbe = in.getInt();
+        knn.pqSubspaces = in.getInt();
+        knn.pqCentroids = in.getInt();
+        knn.shards = in.getInt();
+        knn.sharding = readUTF(in);
+        knn.regressionMethod = readUTF(in);
+        knn.kernel = readUTF(in);
+        knn.kernelSupport = in.getDouble();
+
+        //data, then reducedData (if any) right after it in the same arrays
+        int n = in.getInt();
+        int dim = in.getInt();
+        int[] ids = new int[n];
+        String[] labels = new String[n];
+        readLabels(in, ids, labels, 0, n);
+        int dataFeatures = in.position();
+        in.position(dataFeatures + 8 * n * dim);
+
+        int reduced = in.getInt();
+        double[] features = new double[(n + Math.max(0, reduced)) * dim];
+        if (reduced >= 0) {
+            if (in.getInt() != dim) {
+                throw new IOException(fileName + " has reducedData of another dim than data");
+            }
+            ids = Arrays.copyOf(ids, n + reduced);
+            labels = Arrays.copyOf(labels, n + reduced);
+            readLabels(in, ids, labels, n, n + reduced);
+            readDoubles(in, features, n * dim, reduced * dim);
+        }
+        int end = in.position();
+        in.position(dataFeatures);
+        readDoubles(in, features, 0, n * dim);
+        in.position(end);
+
+        DataStore store = new DataStore(dim, features, ids, labels);
+        knn.data = rows(store, 0, n);
+        if (reduced >= 0) {
+            knn.reducedData = rows(store, n, n + reduced);
+            knn.isReducedData = true;
+        }
+
+        String kind = readUTF(in);
+        switch (kind) {
+            case "kdtree":
+                knn.publish(store, KDTree.read(in, store));
+                break;
+            case "hnsw":
+                knn.publish(store, HNSW.read(in, store));
+                break;
+            default:
+                knn.publish(store, knn.buildIndex(store));
+        }
+
+        return knn;
+    }
+
+    /*
+        Rows from to to of store
+     */
+    private static void writeRows(DataOutputStream out, DataStore store, int from, int to) throws IOException {
+        out.writeInt(to - from);
+        out.writeInt(store.dim);
+        for (int r= from; r< to; r++) {
+            out.writeInt(store.ids[r]);
+            out.writeBoolean(store.classLabels[r] != null);
+            if (store.classLabels[r] != null) {
+                out.writeUTF(store.classLabels[r]);
+            }
+        }
+        for (int i= from * store.dim; i< to * store.dim; i++) {
+            out.writeDouble(store.features[i]);
+        }
+    }
+
+    private static void readLabels(ByteBuffer in, int[] ids, String[] labels, int from, int to) {
+        for (int i= from; i< to; i++) {
+            ids[i] = in.getInt();
+            labels[i] = in.get() != 0 ? readUTF(in) : null;
+        }
+    }
+
+    /*
+        DataC rows from to to of store, for knn.data / knn.reducedData
+     */
+    private static DataC[] rows(DataStore store, int from, int to) {
+        DataC[] rows = new DataC[to - from];
+        for (int r= from; r< to; r++) {
+            rows[r - from] = store.view(r);
+        }
+        return rows;
+    }
+
+    /*
+        Reads a String written by DataOutput.writeUTF() (labels and
+        names are ASCII, so modified UTF-8 is plain UTF-8 here)
+     */
+    static String readUTF(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    //arrays w/ their length, for the indexes
+
+    static void writeInts(DataOutputStream out, int[] a, int len) throws IOException {
+        out.writeInt(len);
+        for (int i= 0; i< len; i++) {
+            out.writeInt(a[i]);
+        }
+    }
+
+    static void writeDoubles(DataOutputStream out, double[] a, int len) throws IOException {
+        out.writeInt(len);
+        for (int i= 0; i< len; i++) {
+            out.writeDouble(a[i]);
+        }
+    }
+
+    static void writeBooleans(DataOutputStream out, boolean[] a) throws IOException {
+        out.writeInt(a.length);
+        for (boolean b: a) {
+            out.writeBoolean(b);
+        }
+    }
+
+    static int[] readInts(ByteBuffer in) {
+        int[] a = new int[in.getInt()];
+        in.asIntBuffer().get(a);
+        in.position(in.position() + 4 * a.length);
+        return a;
+    }
+
+    static double[] readDoubles(ByteBuffer in) {
+        return readDoubles(in, in.getInt());
+    }
+
+    private static double[] readDoubles(ByteBuffer in, int len) {
+        double[] a = new double[len];
+        readDoubles(in, a, 0, len);
+        return a;
+    }
+
+    private static void readDoubles(ByteBuffer in, double[] a, int from, int len) {
+        in.asDoubleBuffer().get(a, from, len);
+        in.position(in.position() + 8 * len);
+    }
+
+    static boolean[] readBooleans(ByteBuffer in) {
+        boolean[] a = new boolean[in.getInt()];
+        for (int i= 0; i< a.length; i++) {
+            a[i] = in.get() != 0;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,146 @@
+package project_2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/*
+    Caches the sorted kMax nearest neighbors (ids and distances) of every
+    test row of one 10-fold split of a KNearestNeighbor's data.
+
+    Distances and neighbor order do not depend on k, epsilon or sigma,
+    so crossValidate(params) re-scores any k <= kMax from the cache
+    without another distance pass. tune() pays for one cross-validation
+    instead of one per candidate.
+
+    For kernel regression the neighbors inside the kernel support of
+    the largest sigma (kernelSupport * maxSigma) are cached as well, so
+    a candidate is scored on exactly what searchKernel() would return:
+    the neighbors inside its own support, or its k nearest if there
+    are none.
+ */
+public class NeighborCache {
+
+    private KNearestNeighbor knn;
+    private int kMax;
+    private Labels labels;
+    private DataC[][] tests;
+    private Neighbors[][] neighbors;
+    private double maxSigma;
+    private Neighbors[][] inSupport;    //kernel regression only
+
+    public NeighborCache(KNearestNeighbor knn, int kMax) {
+        this(knn, kMax, knn.sigma);
+    }
+
+    /*
+        maxSigma is the largest sigma that will be scored (only used
+        for kernel regression)
+     */
+    public NeighborCache(KNearestNeighbor knn, int kMax, double maxSigma) {
+        this.knn = knn;
+        this.kMax = kMax;
+        this.maxSigma = maxSigma;
+
+        //same split sizes as KNearestNeighbor.crossValidate()
+        int trainLen = (int)(0.9 * knn.data.length) + 1;
+        if (knn.isReducedData) {
+            trainLen += knn.reducedData.length;
+        }
+        int testLen = knn.data.length - trainLen;
+
+        DataC[][] split = knn.splitFolds(testLen);
+        DataC[] reduced = knn.isReducedData ? knn.reducedData : new DataC[0];
+        this.labels = knn.labels();
+        this.tests = new DataC[10][];
+        this.neighbors = new Neighbors[10][];
+        this.inSupport = knn.isKernelRegression() ? new Neighbors[10][] : null;
+
+        //one search of the kMax nearest per fold, folds in parallel
+        List<ForkJoinTask<?>> folds = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, knn.parallelism));
+        for (int fold= 0; fold< 10; fold++) {
+            final int f = fold;
+            tests[f] = split[(f+9)%10];
+            folds.add(pool.submit(() -> searchFold(f, KNearestNeighbor.trainFold(split, f, reduced))));
+        }
+        for (ForkJoinTask<?> fold: folds) {
+            fold.join();
+        }
+        pool.shutdown();
+    }
+
+    private void searchFold(int fold, DataC[] train) {
+        NeighborSearch index = knn.buildIndex(train);
+        List<double[]> queries = new ArrayList<>();
+        for (DataC d : tests[fold]) {
+            if (d != null) {
+                queries.add(d.getFeatures());
+            }
+        }
+
+        neighbors[fold] = index.searchBatch(queries.toArray(new double[0][]), kMax);
+        if (inSupport != null) {
+            inSupport[fold] = new Neighbors[queries.size()];
+            for (int q= 0; q< queries.size(); q++) {
+                inSupport[fold][q] = index.searchRadius(queries.get(q), knn.kernelSupport * maxSigma);
+            }
+        }
+    }
+
+    public int getKMax() { return kMax; }
+
+    /*
+        Same as KNearestNeighbor.crossValidate() on the cached split,
+        w/ params.k capped at kMax
+     */
+    public double[] crossValidate(KNNParams params) {
+        if (params.k > kMax) {
+            params = new KNNParams(kMax, params.epsilon, params.sigma);
+        }
+
+        double[] lossStats = new double[3];
+        for (int fold= 0; fold< 10; fold++) {
+            double[] lossTemp = foldLoss(fold, params);
+            for (int i= 0; i< lossStats.length; i++) {
+                lossStats[i] += lossTemp[i];
+            }
+        }
+
+        //average loss data
+        for (int i= 0; i< lossStats.length; i++) {
+            lossStats[i] /= 10;
+        }
+
+        knn.printLossStats(lossStats);
+
+        return lossStats;
+    }
+
+    /*
+        Loss stats of a single fold (see KNearestNeighbor.loss())
+     */
+    public double[] foldLoss(int fold, KNNParams params) {
+        if (inSupport == null) {
+            return knn.score(tests[fold], neighbors[fold], params, labels);
+        }
+
+        if (params.sigma > maxSigma) {
+            throw new IllegalArgumentException("sigma " + params.sigma + " is above the cached maxSigma " + maxSigma);
+        }
+
+        //same neighbors as searchKernel() w/ params
+        double radius = knn.kernelSupport * params.sigma;
+        Neighbors[] nn = new Neighbors[neighbors[fold].length];
+        for (int q= 0; q< nn.length; q++) {
+            Neighbors all = inSupport[fold][q];
+            int inside= 0;
+            while (inside < all.size && all.dists[inside] < radius) {
+                inside++;
+            }
+            nn[q] = inside > 0 ? all.first(inside) : neighbors[fold][q].first(params.k);
+        }
+        return knn.score(tests[fold], nn, params, labels);
+    }
+}
@@ -0,0 +1,62 @@
+package project_2;
+
+/*
+    A search strategy for finding the k nearest neighbors of a query
+    in a training set. An index is built once per DataC[] training set
+    and then queried many times (see KNearestNeighbor.buildIndex()).
+
+    Rows are identified by their position in the DataC[] the index was
+    built from; returned neighbors carry the DataC id, like the original
+    distArray[i][1] in classify().
+ */
+public interface NeighborSearch {
+
+    /*
+        Returns the k nearest neighbors of query sorted by ascending
+        euclidean distance. May hold fewer than k if the training set
+        is smaller than k.
+     */
+    Neighbors search(double[] query, int k);
+
+    /*
+        Returns the k nearest neighbors of every query, in order.
+        Strategies that can share work across queries (see LinearSearch)
+        override this.
+     */
+    default Neighbors[] searchBatch(double[][] queries, int k) {
+        Neighbors[] nn = new Neighbors[queries.length];
+        for (int i= 0; i< queries.length; i++) {
+            nn[i] = search(queries[i], k);
+        }
+        return nn;
+    }
+
+    /*
+        Returns every neighbor within radius of query (euclidean distance
+        < radius), closest first.
+
+        By default this doubles k until the kth neighbor falls outside the
+        radius. Strategies that can prune by the radius directly
+        (see LinearSearch, KDTree) override this.
+     */
+    default Neighbors searchRadius(double[] query, double radius) {
+        int k = 16;
+        while (true) {
+            Neighbors nn = search(query, k);
+            if (nn.size < k || nn.dists[nn.size - 1] >= radius) {
+                int inside= 0;
+                while (inside < nn.size && nn.dists[inside] < radius) {
+                    inside++;
+                }
+                return nn.first(inside);
+            }
+            k *= 2;
+        }
+    }
+
+    /*
+        Removes the row at position i of the training set from all
+        future searches (used by editDataSet())
+     */
+    void remove(int i);
+}
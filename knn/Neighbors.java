@@ -0,0 +1,57 @@
+package project_2;
+
+/*
+    The result of a nearest neighbor search. ids[] holds the DataC ids
+    and dists[] the euclidean distances of the nearest neighbors, closest
+    first. Only the first size entries are valid.
+ */
+public class Neighbors {
+
+    public int[] ids;
+    public double[] dists;
+    public int size;
+
+    public Neighbors(int k) {
+        this.ids = new int[k];
+        this.dists = new double[k];
+        this.size = 0;
+    }
+
+    /*
+        The k closest of these neighbors, shares the arrays
+        w/ this object
+     */
+    public Neighbors first(int k) {
+        if (k >= size) {
+            return this;
+        }
+
+        Neighbors nn = new Neighbors(0);
+        nn.ids = this.ids;
+        nn.dists = this.dists;
+        nn.size = k;
+
+        return nn;
+    }
+
+    /*
+        Fraction of these (exact) neighbors that also appear in other
+     */
+    public double recall(Neighbors other) {
+        if (size == 0) {
+            return 1.0;
+        }
+
+        int found= 0;
+        for (int i= 0; i< size; i++) {
+            for (int j= 0; j< other.size; j++) {
+                if (ids[i] == other.ids[j]) {
+                    found++;
+                    break;
+                }
+            }
+        }
+
+        return (double) found / size;
+    }
+}
@@ -0,0 +1,70 @@
+package project_2;
+
+/*
+    Approximate search strategy - product quantization.
+
+    Every row is kept only as the m byte codes of a ProductQuantizer,
+    so the index takes about m bytes per row instead of 8 * dim and
+    multi-million row training sets fit in memory. A query builds one
+    distance table and scans the codes w/ table lookups.
+
+    Returned distances are the approximate (quantized) distances.
+    Use KNearestNeighbor.recall() to measure how many of the true k
+    nearest are found.
+ */
+public class PQSearch implements NeighborSearch {
+
+    private int dim;
+    private int m;
+    private ProductQuantizer pq;
+    private byte[] codes;           //row r at codes[r * m]
+    private int[] ids;
+    private int[] position;         //row of dataSet[i], -1 if not indexed
+    private boolean[] removed;
+
+    public PQSearch(DataC[] dataSet, int m, int numCentroids) {
+        //rows w/o a valid id are never returned as neighbors
+        this(new DataStore(dataSet), m, numCentroids);
+    }
+
+    public PQSearch(DataStore store, int m, int numCentroids) {
+        int n = store.size;
+        dim = store.dim;
+        ids = store.ids;
+        position = store.position;
+        removed = new boolean[n];
+
+        pq = new ProductQuantizer(store, m, numCentroids);
+        this.m = pq.getM();
+        codes = new byte[n * this.m];
+        for (int r= 0; r< n; r++) {
+            pq.encode(store.features, r * dim, codes, r * this.m);
+        }
+    }
+
+    public Neighbors search(double[] query, int k) {
+        TopK best = new TopK(k);
+        if (query.length != dim || ids.length == 0) {
+            return best.toNeighbors();
+        }
+
+        double[] table = pq.table(query);
+        for (int r= 0; r< ids.length; r++) {
+            if (!removed[r]) {
+                double bound = best.bound();
+                double d = pq.distance(table, codes, r * m, bound);
+                if (d < bound) {
+                    best.offer(d, ids[r]);
+                }
+            }
+        }
+
+        return best.toNeighbors();
+    }
+
+    public void remove(int i) {
+        if (position[i] >= 0) {
+            removed[position[i]] = true;
+        }
+    }
+}
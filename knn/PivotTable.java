@@ -0,0 +1,133 @@
+package project_2;
+
+import java.util.Arrays;
+
+/*
+    Exact search strategy - pivot table (LAESA).
+
+    A few rows are picked as pivots (farthest first) and the distance
+    from every row to every pivot is stored. For a query q and row r
+    the triangle inequality gives
+        d(q, r) >= |d(q, p) - d(r, p)|   for every pivot p
+    so a row is skipped w/o computing d(q, r) once that lower bound
+    reaches the current kth best distance.
+
+    Unlike KDTree this only needs the distance to be a metric, not the
+    features to be split by coordinate, so it keeps pruning on higher
+    dimensional sets like segmentation and house votes.
+ */
+public class PivotTable implements NeighborSearch {
+
+    private int dim;
+    private int numPivots;
+    private double[] points;        //features of the DataStore, not a copy
+    private int[] ids;
+    private int[] position;         //row of dataSet[i], -1 if not indexed
+    private boolean[] removed;
+
+    private int[] pivots;           //rows used as pivots
+    private boolean[] isPivot;
+    private double[] table;         //table[r * numPivots + j] = d(row r, pivot j)
+
+    public PivotTable(DataC[] dataSet, int numPivots) {
+        //rows w/o a valid id are never returned as neighbors
+        this(new DataStore(dataSet), numPivots);
+    }
+
+    public PivotTable(DataStore store, int numPivots) {
+        int n = store.size;
+        dim = store.dim;
+        points = store.features;
+        ids = store.ids;
+        position = store.position;
+        removed = new boolean[n];
+
+        this.numPivots = Math.min(numPivots, n);
+        pivots = new int[this.numPivots];
+        table = new double[n * this.numPivots];
+        isPivot = new boolean[n];
+        if (this.numPivots > 0) {
+            choosePivots(n);
+        }
+    }
+
+    /*
+        Farthest first - each new pivot is the row farthest from all
+        pivots chosen so far. Fills the distance table as it goes.
+     */
+    private void choosePivots(int n) {
+        double[] minDist = new double[n];
+        Arrays.fill(minDist, Double.POSITIVE_INFINITY);
+        int next = 0;
+
+        for (int j= 0; j< numPivots; j++) {
+            pivots[j] = next;
+            isPivot[next] = true;
+            double[] pivot = Arrays.copyOfRange(points, next * dim, next * dim + dim);
+
+            double farthest = -1;
+            for (int r= 0; r< n; r++) {
+                double d = Math.sqrt(Distance.squaredEuclidean(points, r * dim, pivot, Double.POSITIVE_INFINITY));
+                table[r * numPivots + j] = d;
+
+                if (d < minDist[r]) {
+                    minDist[r] = d;
+                }
+                if (minDist[r] > farthest) {
+                    farthest = minDist[r];
+                    next = r;
+                }
+            }
+        }
+    }
+
+    public Neighbors search(double[] query, int k) {
+        TopK best = new TopK(k);
+        if (query.length != dim) {
+            return best.toNeighbors();
+        }
+
+        //distances from the query to the pivots, pivots are candidates too
+        double[] toPivot = new double[numPivots];
+        for (int j= 0; j< numPivots; j++) {
+            double d = Distance.squaredEuclidean(points, pivots[j] * dim, query, Double.POSITIVE_INFINITY);
+            toPivot[j] = Math.sqrt(d);
+            if (!removed[pivots[j]] && d < best.bound()) {
+                best.offer(d, ids[pivots[j]]);
+            }
+        }
+
+        for (int r= 0; r< ids.length; r++) {
+            if (removed[r] || isPivot[r]) {
+                continue;
+            }
+
+            //lower bound on d(query, r), stop as soon as it prunes the row
+            double bound = best.bound();
+            double kth = Math.sqrt(bound);
+            boolean pruned = false;
+            int off = r * numPivots;
+            for (int j= 0; j< numPivots; j++) {
+                if (Math.abs(toPivot[j] - table[off + j]) >= kth) {
+                    pruned = true;
+                    break;
+                }
+            }
+
+            if (!pruned) {
+                double d = Distance.squaredEuclidean(points, r * dim, query, bound);
+                if (d < bound) {
+                    best.offer(d, ids[r]);
+                }
+            }
+        }
+
+        return best.toNeighbors();
+    }
+
+    public void remove(int i) {
+        if (position[i] >= 0) {
+            removed[position[i]] = true;
+        }
+    }
+}
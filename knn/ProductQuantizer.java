@@ -0,0 +1,137 @@
+package project_2;
+
+import java.util.Random;
+
+/*
+    Product quantization codec (see PQSearch).
+
+    A feature vector is cut into m sub-vectors and each sub-space gets
+    its own codebook of up to 256 centroids from Cluster.kMeansClusters(),
+    so a row is stored as m byte codes instead of dim doubles
+    (8 * dim / m times smaller).
+
+    Queries are not encoded: table() gives the squared distance from
+    each query sub-vector to every centroid of its sub-space once, and
+    the distance to a row is then m table lookups (asymmetric distance).
+ */
+public class ProductQuantizer {
+
+    //rows the codebooks are trained on, the rest are only encoded
+    private static final int TRAIN_ROWS = 1 << 15;
+
+    private int dim;
+    private int m;
+    private int numCentroids;
+    private int[] start;            //sub-space s is features [start[s], start[s+1])
+    private double[][] codebooks;   //codebooks[s][c * len + j], len = start[s+1] - start[s]
+
+    public ProductQuantizer(DataStore store, int m, int numCentroids) {
+        this.dim = store.dim;
+        this.m = Math.max(1, Math.min(m, dim));
+        this.numCentroids = Math.max(1, Math.min(Math.min(numCentroids, 256), store.size));
+
+        start = new int[this.m + 1];
+        for (int s= 0; s<= this.m; s++) {
+            start[s] = s * dim / this.m;
+        }
+
+        //training sample, seeded like the k-means below so the same rows
+        //always give the same codebooks (see ModelFile)
+        int[] sample = new int[Math.min(store.size, TRAIN_ROWS)];
+        Random random = new Random(42);
+        for (int i= 0; i< sample.length; i++) {
+            sample[i] = sample.length == store.size ? i : random.nextInt(store.size);
+        }
+
+        codebooks = new double[this.m][];
+        for (int s= 0; s< this.m; s++) {
+            int len = start[s + 1] - start[s];
+
+            //sub-vectors of the sample as a store of their own
+            double[] x = new double[sample.length * len];
+            int[] ids = new int[sample.length];
+            for (int i= 0; i< sample.length; i++) {
+                System.arraycopy(store.features, sample[i] * dim + start[s], x, i * len, len);
+                ids[i] = i + 1;
+            }
+
+            double[][] means = Cluster.kMeans(new DataStore(len, x, ids, null), this.numCentroids,
+                    random, new int[sample.length]);
+            codebooks[s] = new double[this.numCentroids * len];
+            for (int c= 0; c< this.numCentroids; c++) {
+                System.arraycopy(means[c], 0, codebooks[s], c * len, len);
+            }
+        }
+    }
+
+    public int getM() { return m; }
+
+    /*
+        Writes the m codes of x[off..off+dim) to codes[codeOff..codeOff+m)
+     */
+    public void encode(double[] x, int off, byte[] codes, int codeOff) {
+        for (int s= 0; s< m; s++) {
+            int len = start[s + 1] - start[s];
+            double[] book = codebooks[s];
+
+            int best = 0;
+            double bestDist = Double.POSITIVE_INFINITY;
+            for (int c= 0; c< numCentroids; c++) {
+                double d= 0;
+                for (int j= 0; j< len; j++) {
+                    double diff = x[off + start[s] + j] - book[c * len + j];
+                    d += diff * diff;
+                }
+                if (d < bestDist) {
+                    bestDist = d;
+                    best = c;
+                }
+            }
+            codes[codeOff + s] = (byte) best;
+        }
+    }
+
+    /*
+        table[s * 256 + c] = squared distance between the query's
+        sub-vector s and centroid c of sub-space s
+     */
+    public double[] table(double[] query) {
+        double[] table = new double[m * 256];
+        for (int s= 0; s< m; s++) {
+            int len = start[s + 1] - start[s];
+            double[] book = codebooks[s];
+            for (int c= 0; c< numCentroids; c++) {
+                double d= 0;
+                for (int j= 0; j< len; j++) {
+                    double diff = query[start[s] + j] - book[c * len + j];
+                    d += diff * diff;
+                }
+                table[s * 256 + c] = d;
+            }
+        }
+        return table;
+    }
+
+    /*
+        Approximate squared distance of the row w/ codes[off..off+m),
+        stops early once the sum passes bound
+     */
+    public double distance(double[] table, byte[] codes, int off, double bound) {
+        double sum= 0;
+        int s= 0;
+        for (; s+ 3< m; s+= 4) {
+            sum += table[s * 256 + (codes[off + s] & 0xFF)]
+                    + table[(s + 1) * 256 + (codes[off + s + 1] & 0xFF)]
+                    + table[(s + 2) * 256 + (codes[off + s + 2] & 0xFF)]
+                    + table[(s + 3) * 256 + (codes[off + s + 3] & 0xFF)];
+            if (sum >= bound) {
+                return sum;
+            }
+        }
+        for (; s< m; s++) {
+            sum += table[s * 256 + (codes[off + s] & 0xFF)];
+        }
+
+        return sum;
+    }
+}
@@ -0,0 +1,179 @@
+package project_2;
+
+import java.util.Arrays;
+
+/*
+    A k-d tree that can grow one row at a time, used to hold the
+    prototypes of KNearestNeighbor.condenseDataSet().
+
+    Rows are appended to leaf buckets. A bucket that overflows is split
+    on the median of its widest dimension, so the tree stays balanced
+    enough w/o ever being rebuilt. A row equal to one already in its
+    bucket is numbered but not added to the bucket: nearest() would
+    return the first of equal rows anyway, and a bucket of equal rows
+    could never be split, so duplicate-heavy data would make every
+    search scan all of them. nearest() is an exact 1-NN search
+    w/ branch and bound and can run on several threads as long as no
+    add() runs at the same time.
+ */
+public class PrototypeTree {
+
+    private static final int BUCKET_SIZE = 16;
+
+    private int dim;
+    private double[][] rows = new double[16][];
+    private int size;
+
+    //nodes, splitDim[node] == -1 for a leaf
+    private int[] splitDim = new int[16];
+    private double[] splitVal = new double[16];
+    private int[] left = new int[16];
+    private int[] right = new int[16];
+    private int[][] bucket = new int[16][];
+    private int[] bucketSize = new int[16];
+    private int numNodes;
+
+    public PrototypeTree(int dim) {
+        this.dim = dim;
+        newLeaf();
+    }
+
+    public int size() { return size; }
+
+    /*
+        Adds a row, returns its number (0, 1, 2, ...)
+     */
+    public int add(double[] x) {
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, 2 * size);
+        }
+        rows[size] = x;
+
+        int node = 0;
+        while (splitDim[node] != -1) {
+            node = x[splitDim[node]] < splitVal[node] ? left[node] : right[node];
+        }
+
+        int[] b = bucket[node];
+        for (int i= 0; i< bucketSize[node]; i++) {
+            if (Arrays.equals(rows[b[i]], x)) {
+                return size++;      //duplicate, found as b[i]
+            }
+        }
+        if (bucketSize[node] == b.length) {
+            bucket[node] = b = Arrays.copyOf(b, 2 * b.length);
+        }
+        b[bucketSize[node]++] = size;
+
+        if (bucketSize[node] > BUCKET_SIZE) {
+            split(node);
+        }
+
+        return size++;
+    }
+
+    private int newLeaf() {
+        if (numNodes == splitDim.length) {
+            int n = 2 * numNodes;
+            splitDim = Arrays.copyOf(splitDim, n);
+            splitVal = Arrays.copyOf(splitVal, n);
+            left = Arrays.copyOf(left, n);
+            right = Arrays.copyOf(right, n);
+            bucket = Arrays.copyOf(bucket, n);
+            bucketSize = Arrays.copyOf(bucketSize, n);
+        }
+        splitDim[numNodes] = -1;
+        bucket[numNodes] = new int[BUCKET_SIZE + 1];
+        bucketSize[numNodes] = 0;
+        return numNodes++;
+    }
+
+    /*
+        Turns a full leaf into an internal node w/ 2 leaves
+     */
+    private void split(int node) {
+        int[] b = bucket[node];
+        int n = bucketSize[node];
+
+        //widest dimension
+        int best = 0;
+        double bestSpread = -1;
+        for (int j= 0; j< dim; j++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i= 0; i< n; i++) {
+                double v = rows[b[i]][j];
+                if (v < min) { min = v; }
+                if (v > max) { max = v; }
+            }
+            if (max - min > bestSpread) {
+                bestSpread = max - min;
+                best = j;
+            }
+        }
+        if (bestSpread <= 0) {
+            return;     //all rows equal (only w/ NaN features, see add())
+        }
+
+        double[] values = new double[n];
+        for (int i= 0; i< n; i++) {
+            values[i] = rows[b[i]][best];
+        }
+        Arrays.sort(values);
+        double median = values[n / 2];
+        if (median == values[0]) {
+            median = Math.nextUp(median);   //keep both sides non-empty
+        }
+
+        int l = newLeaf();
+        int r = newLeaf();
+        for (int i= 0; i< n; i++) {
+            int leaf = rows[b[i]][best] < median ? l : r;
+            bucket[leaf][bucketSize[leaf]++] = b[i];
+            if (bucketSize[leaf] == bucket[leaf].length) {
+                bucket[leaf] = Arrays.copyOf(bucket[leaf], 2 * bucket[leaf].length);
+            }
+        }
+
+        splitDim[node] = best;
+        splitVal[node] = median;
+        left[node] = l;
+        right[node] = r;
+        bucket[node] = null;
+        bucketSize[node] = 0;
+    }
+
+    /*
+        Number of the row closest to query, -1 if the tree is empty.
+        dist[0] is set to its squared distance.
+     */
+    public int nearest(double[] query, double[] dist) {
+        dist[0] = Double.POSITIVE_INFINITY;
+        int[] best = {-1};
+        nearest(0, query, dist, best);
+        return best[0];
+    }
+
+    private void nearest(int node, double[] query, double[] dist, int[] best) {
+        if (splitDim[node] == -1) {
+            int[] b = bucket[node];
+            for (int i= 0; i< bucketSize[node]; i++) {
+                double d = Distance.squaredEuclidean(rows[b[i]], query, dist[0]);
+                if (d < dist[0]) {
+                    dist[0] = d;
+                    best[0] = b[i];
+                }
+            }
+            return;
+        }
+
+        double diff = query[splitDim[node]] - splitVal[node];
+        int near = diff < 0 ? left[node] : right[node];
+        int far = diff < 0 ? right[node] : left[node];
+
+        nearest(near, query, dist, best);
+        if (diff * diff < dist[0]) {
+            nearest(far, query, dist, best);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package project_2;
+
+/*
+    Brute force search over a compressed copy of the training set.
+
+    The features are scanned as "float" (half the bytes of a double) or
+    as "int8" codes (an eighth of the bytes), and only the rows that
+    could still be among the k nearest are re-ranked w/ the full
+    precision row of the DataStore.
+
+    For each row the build keeps err = ||x - decode(x)||, and the query
+    is compressed the same way, so by the triangle inequality the
+    compressed distance is within both errors of the true one. A row
+    is only re-ranked when its compressed distance minus those errors
+    beats the current kth best, so the result is the same as
+    LinearSearch.
+
+    int8 codes are centered per dimension but share one step size, so
+    the scan is plain integer arithmetic w/o a multiply per dimension.
+ */
+public class QuantizedSearch implements NeighborSearch {
+
+    //clamp for query codes, keeps (code - query)^2 inside a long
+    private static final int MAX_QUERY_CODE = 1 << 20;
+
+    private int dim;
+    private boolean int8;
+    private float[] floats;         //"float": row-major features as floats
+    private double slack;           //"float": relative rounding of a float sum
+    private byte[] codes;           //"int8": row-major codes
+    private double[] offset;        //"int8": x[j] ~ offset[j] + step * code
+    private double step;
+    private double[] err;           //||x - decode(x)|| of each row
+    private double[] points;        //full precision rows for the re-rank
+    private int[] ids;
+    private int[] position;         //row of dataSet[i], -1 if not indexed
+    private boolean[] removed;
+
+    public QuantizedSearch(DataC[] dataSet, String type) {
+        //rows w/o a valid id are never returned as neighbors
+        this(new DataStore(dataSet), type);
+    }
+
+    public QuantizedSearch(DataStore store, String type) {
+        int n = store.size;
+        dim = store.dim;
+        points = store.features;
+        ids = store.ids;
+        position = store.position;
+        removed = new boolean[n];
+        err = new double[n];
+        int8 = type.contentEquals("int8");
+
+        if (int8) {
+            //256 levels over the widest range, each dimension centered on its own range
+            offset = new double[dim];
+            double widest= 0;
+            for (int j= 0; j< dim; j++) {
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (int r= 0; r< n; r++) {
+                    double v = points[r * dim + j];
+                    if (v < min) { min = v; }
+                    if (v > max) { max = v; }
+                }
+                offset[j] = n == 0 ? 0 : (min + max) / 2;
+                widest = Math.max(widest, max - min);
+            }
+            step = widest > 0 ? widest / 255 : 1;
+
+            codes = new byte[n * dim];
+            for (int r= 0; r< n; r++) {
+                double e= 0;
+                for (int j= 0; j< dim; j++) {
+                    double v = points[r * dim + j];
+                    long c = Math.max(-128, Math.min(127, Math.round((v - offset[j]) / step)));
+                    codes[r * dim + j] = (byte) c;
+                    double d = v - (offset[j] + step * c);
+                    e += d * d;
+                }
+                err[r] = Math.sqrt(e);
+            }
+        }
+        else {
+            floats = new float[n * dim];
+            for (int r= 0; r< n; r++) {
+                double e= 0;
+                for (int j= 0; j< dim; j++) {
+                    double v = points[r * dim + j];
+                    floats[r * dim + j] = (float) v;
+                    double d = v - floats[r * dim + j];
+                    e += d * d;
+                }
+                err[r] = Math.sqrt(e);
+            }
+
+            //generous bound on the rounding of floatDistance(), relative to its result
+            slack = 1 + (dim + 16) * Math.ulp(1.0f);
+        }
+    }
+
+    public Neighbors search(double[] query, int k) {
+        TopK best = new TopK(k);
+        if (query.length != dim) {
+            return best.toNeighbors();
+        }
+
+        float[] qf = int8 ? null : toFloats(query);
+        int[] qc = int8 ? toCodes(query) : null;
+        double queryErr = int8 ? codeError(query, qc) : floatError(query, qf);
+
+        for (int r= 0; r< ids.length; r++) {
+            if (removed[r]) {
+                continue;
+            }
+
+            //compressed distance, abandoned once it can't beat the kth best
+            double bound = best.bound();
+            double limit = limit(Math.sqrt(bound) + err[r] + queryErr);
+            double approx = int8 ? codeDistance(r, qc, limit) : floatDistance(r, qf, limit);
+            if (approx >= limit) {
+                continue;
+            }
+
+            //exact re-rank
+            double dist = Distance.squaredEuclidean(points, r * dim, query, bound);
+            if (dist < bound) {
+                best.offer(dist, ids[r]);
+            }
+        }
+
+        return best.toNeighbors();
+    }
+
+    public Neighbors searchRadius(double[] query, double radius) {
+        TopK inside = TopK.unbounded();
+        if (query.length != dim) {
+            return inside.toNeighbors();
+        }
+
+        float[] qf = int8 ? null : toFloats(query);
+        int[] qc = int8 ? toCodes(query) : null;
+        double queryErr = int8 ? codeError(query, qc) : floatError(query, qf);
+        double bound = radius * radius;
+
+        for (int r= 0; r< ids.length; r++) {
+            if (removed[r]) {
+                continue;
+            }
+
+            double limit = limit(radius + err[r] + queryErr);
+            double approx = int8 ? codeDistance(r, qc, limit) : floatDistance(r, qf, limit);
+            if (approx < limit) {
+                double dist = Distance.squaredEuclidean(points, r * dim, query, bound);
+                if (dist < bound) {
+                    inside.offer(dist, ids[r]);
+                }
+            }
+        }
+
+        return inside.toNeighbors();
+    }
+
+    /*
+        A true distance below dist means a compressed distance below limit(dist)
+     */
+    private double limit(double dist) {
+        if (dist == Double.POSITIVE_INFINITY) {
+            return dist;
+        }
+        return int8 ? (dist / step) * (dist / step) : slack * dist * dist;
+    }
+
+    private float[] toFloats(double[] query) {
+        float[] q = new float[dim];
+        for (int j= 0; j< dim; j++) {
+            q[j] = (float) query[j];
+        }
+        return q;
+    }
+
+    private int[] toCodes(double[] query) {
+        int[] q = new int[dim];
+        for (int j= 0; j< dim; j++) {
+            long c = Math.round((query[j] - offset[j]) / step);
+            q[j] = (int) Math.max(-MAX_QUERY_CODE, Math.min(MAX_QUERY_CODE, c));
+        }
+        return q;
+    }
+
+    private double floatError(double[] query, float[] q) {
+        double e= 0;
+        for (int j= 0; j< dim; j++) {
+            double d = query[j] - q[j];
+            e += d * d;
+        }
+        return Math.sqrt(e);
+    }
+
+    private double codeError(double[] query, int[] q) {
+        double e= 0;
+        for (int j= 0; j< dim; j++) {
+            double d = query[j] - (offset[j] + step * q[j]);
+            e += d * d;
+        }
+        return Math.sqrt(e);
+    }
+
+    /*
+        Squared distance in float arithmetic, stops early like
+        Distance.squaredEuclidean()
+     */
+    private double floatDistance(int r, float[] query, double bound) {
+        int off = r * dim;
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i= 0;
+        for (; i+ 3< dim; i+= 4) {
+            float d0 = floats[off + i] - query[i];
+            float d1 = floats[off + i + 1] - query[i + 1];
+            float d2 = floats[off + i + 2] - query[i + 2];
+            float d3 = floats[off + i + 3] - query[i + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+            if (s0 + s1 + s2 + s3 >= bound) {
+                return s0 + s1 + s2 + s3;
+            }
+        }
+        for (; i< dim; i++) {
+            float d = floats[off + i] - query[i];
+            s0 += d * d;
+        }
+
+        return s0 + s1 + s2 + s3;
+    }
+
+    /*
+        Squared distance in code units (exact integer arithmetic)
+     */
+    private double codeDistance(int r, int[] query, double bound) {
+        int off = r * dim;
+        long s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i= 0;
+        for (; i+ 3< dim; i+= 4) {
+            long d0 = codes[off + i] - query[i];
+            long d1 = codes[off + i + 1] - query[i + 1];
+            long d2 = codes[off + i + 2] - query[i + 2];
+            long d3 = codes[off + i + 3] - query[i + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+            if (s0 + s1 + s2 + s3 >= bound) {
+                return s0 + s1 + s2 + s3;
+            }
+        }
+        for (; i< dim; i++) {
+            long d = codes[off + i] - query[i];
+            s0 += d * d;
+        }
+
+        return s0 + s1 + s2 + s3;
+    }
+
+    public void remove(int i) {
+        if (position[i] >= 0) {
+            removed[position[i]] = true;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package project_2;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+    Bounded LRU cache of predictions for KNearestNeighbor.predictClass()
+    and predictValue(), so exact repeats of a query (retries, fan-out)
+    skip the neighbor search.
+
+    Entries are keyed on the query features and the KNNParams (plus the
+    prediction mode) they were computed with. The cache evicts the
+    least recently used entries once it holds more than maxEntries, or
+    more than maxWeight doubles of query features (0 = no limit).
+
+    KNearestNeighbor clears it whenever the training set it predicts
+    from is replaced. All methods are synchronized so predictions can
+    run on several threads.
+ */
+public class QueryCache {
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final LinkedHashMap<Key, Double> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public QueryCache(int maxEntries, long maxWeight) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    /*
+        Cached prediction, or null on a miss
+     */
+    public synchronized Double get(double[] query, KNNParams params, String mode) {
+        Double value = entries.get(new Key(query, params, mode));
+        if (value == null) {
+            misses++;
+        }
+        else {
+            hits++;
+        }
+        return value;
+    }
+
+    public synchronized void put(double[] query, KNNParams params, String mode, double value) {
+        Key key = new Key(query.clone(), params, mode);
+        if (entries.put(key, value) == null) {
+            weight += query.length;
+        }
+
+        //evict least recently used
+        Iterator<Map.Entry<Key, Double>> eldest = entries.entrySet().iterator();
+        while (eldest.hasNext() && ((maxEntries > 0 && entries.size() > maxEntries)
+                || (maxWeight > 0 && weight > maxWeight))) {
+            weight -= eldest.next().getKey().query.length;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /*
+        Drops every entry, e.g. after the training set changed
+     */
+    public synchronized void invalidate() {
+        if (!entries.isEmpty()) {
+            invalidations++;
+        }
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() { return entries.size(); }
+
+    public synchronized long getWeight() { return weight; }
+
+    public synchronized long getHits() { return hits; }
+
+    public synchronized long getMisses() { return misses; }
+
+    public synchronized long getEvictions() { return evictions; }
+
+    public synchronized long getInvalidations() { return invalidations; }
+
+    public synchronized String toString() {
+        return "hits: " + hits + "  misses: " + misses + "  evictions: " + evictions
+                + "  invalidations: " + invalidations + "  entries: " + entries.size();
+    }
+
+    private static class Key {
+        private final double[] query;
+        private final int k;
+        private final double epsilon;
+        private final double sigma;
+        private final String mode;
+        private final int hash;
+
+        Key(double[] query, KNNParams params, String mode) {
+            this.query = query;
+            this.k = params.k;
+            this.epsilon = params.epsilon;
+            this.sigma = params.sigma;
+            this.mode = mode;
+
+            int h = Arrays.hashCode(query);
+            h = 31 * h + k;
+            h = 31 * h + Double.hashCode(epsilon);
+            h = 31 * h + Double.hashCode(sigma);
+            this.hash = 31 * h + mode.hashCode();
+        }
+
+        public int hashCode() { return hash; }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && k == other.k
+                    && Double.compare(epsilon, other.epsilon) == 0
+                    && Double.compare(sigma, other.sigma) == 0
+                    && mode.contentEquals(other.mode)
+                    && Arrays.equals(query, other.query);
+        }
+    }
+}
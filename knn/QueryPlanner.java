@@ -0,0 +1,346 @@
+package project_2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    searchMethod = "auto": picks the search backend for each query (or
+    query batch) instead of leaving it to the operator.
+
+    The candidates depend on the shape of the training set:
+        "linear"            always
+        "kdtree"            more than SMALL_ROWS rows and at most TREE_MAX_DIM features
+        "ivf", "hnsw"       at least APPROX_MIN_ROWS rows and recallTarget < 1
+    An approximate backend is only used while its recall@k reaches
+    recallTarget: it is measured on RECALL_QUERIES points between
+    training rows when the backend is built, then kept up to date by
+    checking one in RECALL_CHECK_EVERY of its searches against "linear".
+
+    Each candidate's cost estimate is a simple model of the distance
+    computations it does (n, dim, k and its settings) times its own
+    nanoseconds per unit of work, learned from its own timings - a unit
+    of a sequential scan and of a tree or graph walk do not cost the
+    same. A candidate that was never timed uses the average of the
+    others. Once a backend has MIN_SAMPLES timings its own moving
+    average of nanoseconds per query replaces the model. The cheapest candidate is used; every
+    EXPLORE_EVERY decisions a close runner up is tried instead, so the
+    timings follow the machine and the queries. Backends are built the
+    first time they are chosen.
+
+    All candidates read the features from the same DataStore.
+
+    metrics() reports every candidate's decisions, estimates and timings.
+ */
+public class QueryPlanner implements NeighborSearch {
+
+    static final int SMALL_ROWS = 1000;
+    static final int TREE_MAX_DIM = 16;
+    static final int APPROX_MIN_ROWS = 20000;
+    static final int RECALL_QUERIES = 64;
+    static final int RECALL_CHECK_EVERY = 256;
+    static final int MIN_SAMPLES = 8;
+    static final int EXPLORE_EVERY = 64;
+    static final double EXPLORE_RATIO = 4.0;
+    static final double ALPHA = 0.1;        //weight of a new timing in the moving averages
+
+    private final KNearestNeighbor knn;
+    private final DataStore store;
+    private final int n;
+    private final int dim;
+    private final double recallTarget;
+    private final Candidate[] candidates;
+    private final List<Integer> removed = new ArrayList<>();
+
+    private long decisions;
+
+    /*
+        A backend the planner may use
+     */
+    private static class Candidate {
+        final String method;
+        final boolean exact;
+        volatile NeighborSearch index;
+        double recall = 1.0;
+        long chosen;
+        long samples;
+        double nsPerQuery;              //moving average of observed latency
+        double nsPerUnit;               //calibration of the cost model for this backend
+
+        Candidate(String method, boolean exact) {
+            this.method = method;
+            this.exact = exact;
+        }
+    }
+
+    public QueryPlanner(KNearestNeighbor knn, DataC[] dataSet) {
+        this(knn, new DataStore(dataSet));
+    }
+
+    public QueryPlanner(KNearestNeighbor knn, DataStore store) {
+        this.knn = knn;
+        this.store = store;
+        this.n = store.size;
+        this.dim = store.dim;
+        this.recallTarget = knn.recallTarget;
+
+        List<Candidate> list = new ArrayList<>();
+        list.add(new Candidate("linear", true));
+        if (n > SMALL_ROWS && dim <= TREE_MAX_DIM) {
+            list.add(new Candidate("kdtree", true));
+        }
+        if (n >= APPROX_MIN_ROWS && recallTarget < 1.0) {
+            list.add(new Candidate("ivf", false));
+            list.add(new Candidate("hnsw", false));
+        }
+        this.candidates = list.toArray(new Candidate[0]);
+
+        //build the best guess up front so the first queries do not wait
+        build(plan(knn.k, false));
+    }
+
+    public Neighbors search(double[] query, int k) {
+        Candidate c = plan(k, false);
+        long start = System.nanoTime();
+        Neighbors nn = c.index.search(query, k);
+        if (record(c, k, System.nanoTime() - start, 1)) {
+            checkRecall(c, query, k, nn);
+        }
+        return nn;
+    }
+
+    public Neighbors[] searchBatch(double[][] queries, int k) {
+        if (queries.length == 0) {
+            return new Neighbors[0];
+        }
+        Candidate c = plan(k, false);
+        long start = System.nanoTime();
+        Neighbors[] nn = c.index.searchBatch(queries, k);
+        if (record(c, k, System.nanoTime() - start, queries.length)) {
+            checkRecall(c, queries[0], k, nn[0]);
+        }
+        return nn;
+    }
+
+    /*
+        Radius searches only go to exact backends
+     */
+    public Neighbors searchRadius(double[] query, double radius) {
+        return plan(knn.k, true).index.searchRadius(query, radius);
+    }
+
+    public synchronized void remove(int i) {
+        removed.add(i);
+        for (Candidate c: candidates) {
+            if (c.index != null) {
+                c.index.remove(i);
+            }
+        }
+    }
+
+    /*
+        Chooses the backend for a query w/ k neighbors and makes sure it
+        is built
+     */
+    private Candidate plan(int k, boolean exactOnly) {
+        Candidate choice;
+        synchronized (this) {
+            decisions++;
+            Candidate best = null;
+            Candidate explore = null;
+            for (Candidate c: candidates) {
+                if (!usable(c, exactOnly)) {
+                    continue;
+                }
+                if (best == null || estimate(c, k) < estimate(best, k)) {
+                    best = c;
+                }
+            }
+            if (decisions % EXPLORE_EVERY == 0) {
+                for (Candidate c: candidates) {
+                    if (c != best && usable(c, exactOnly)
+                            && estimate(c, k) < EXPLORE_RATIO * estimate(best, k)
+                            && (explore == null || c.samples < explore.samples)) {
+                        explore = c;
+                    }
+                }
+            }
+            choice = explore != null ? explore : best;
+            choice.chosen++;
+        }
+
+        if (choice.index == null) {
+            build(choice);
+            if (choice.recall < recallTarget) {
+                return plan(k, exactOnly);      //failed its recall check, never chosen again
+            }
+        }
+        return choice;
+    }
+
+    private boolean usable(Candidate c, boolean exactOnly) {
+        return (c.exact || !exactOnly) && (c.index == null || c.recall >= recallTarget);
+    }
+
+    /*
+        Builds c (once), measures its recall if approximate and replays
+        the rows removed so far
+     */
+    private void build(Candidate c) {
+        synchronized (c) {
+            if (c.index != null) {
+                return;
+            }
+
+            KNearestNeighbor settings = new KNearestNeighbor(knn);
+            settings.searchMethod = c.method;
+            NeighborSearch index = settings.buildLocalIndex(store);
+
+            double recall = 1.0;
+            if (!c.exact) {
+                //midpoints of pairs of training rows, a training row itself
+                //would always find itself and flatter the index
+                int step = Math.max(1, n / RECALL_QUERIES);
+                List<double[]> queries = new ArrayList<>();
+                for (int i= 0; i + step / 2< n && queries.size() < RECALL_QUERIES; i += step) {
+                    int a = i * dim;
+                    int b = (int) ((i * 31L + step / 2) % n) * dim;
+                    double[] q = new double[dim];
+                    for (int j= 0; j< dim; j++) {
+                        q[j] = (store.features[a + j] + store.features[b + j]) / 2;
+                    }
+                    queries.add(q);
+                }
+                recall = knn.recall(index, store, queries.toArray(new double[0][]));
+            }
+
+            synchronized (this) {
+                for (int i: removed) {
+                    index.remove(i);
+                }
+                c.recall = recall;
+                c.index = index;
+            }
+        }
+    }
+
+    /*
+        Compares an approximate result w/ the exact one (from "linear",
+        not timed) and updates the recall of c
+     */
+    private void checkRecall(Candidate c, double[] query, int k, Neighbors found) {
+        Candidate linear = candidates[0];
+        build(linear);
+        double recall = linear.index.search(query, k).recall(found);
+        synchronized (this) {
+            c.recall = (1 - ALPHA) * c.recall + ALPHA * recall;
+        }
+    }
+
+    /*
+        Records the latency of a search on c, per query. True if the
+        result should be checked against "linear" (see checkRecall())
+     */
+    private synchronized boolean record(Candidate c, int k, long nanos, int queries) {
+        double ns = (double) nanos / queries;
+        double perUnit = ns / work(c, k);
+        c.nsPerQuery = c.samples == 0 ? ns : (1 - ALPHA) * c.nsPerQuery + ALPHA * ns;
+        c.nsPerUnit = c.samples == 0 ? perUnit : (1 - ALPHA) * c.nsPerUnit + ALPHA * perUnit;
+        c.samples++;
+        return !c.exact && c.samples % RECALL_CHECK_EVERY == 0;
+    }
+
+    /*
+        Estimated nanoseconds per query of c
+     */
+    private double estimate(Candidate c, int k) {
+        if (c.samples >= MIN_SAMPLES) {
+            return c.nsPerQuery;
+        }
+        if (c.samples > 0) {
+            return work(c, k) * c.nsPerUnit;
+        }
+
+        //never timed, the average calibration of the others
+        double perUnit= 0;
+        int timed= 0;
+        for (Candidate other: candidates) {
+            if (other.samples > 0) {
+                perUnit += other.nsPerUnit;
+                timed++;
+            }
+        }
+        return work(c, k) * (timed == 0 ? 1.0 : perUnit / timed);
+    }
+
+    /*
+        Cost model: roughly the number of features compared per query
+     */
+    private double work(Candidate c, int k) {
+        double log2n = Math.log(Math.max(2, n)) / Math.log(2);
+        switch (c.method) {
+            case "kdtree":
+                //leaves visited grow ~2^(dim/2), never more than a full scan
+                return dim * Math.min(n, (k + 1) * log2n * Math.pow(2, dim / 2.0));
+            case "ivf":
+                int lists = knn.ivfLists > 0 ? knn.ivfLists : (int) Math.sqrt(n);
+                return dim * (lists + (double) n * Math.min(knn.ivfProbe, lists) / Math.max(1, lists));
+            case "hnsw":
+                return dim * (double) Math.max(knn.hnswEfSearch, k) * knn.hnswM * log2n;
+            default:
+                return (double) dim * n;
+        }
+    }
+
+    /*
+        The backend the next query w/ k neighbors would most likely use
+     */
+    public synchronized String getChoice(int k) {
+        Candidate best = null;
+        for (Candidate c: candidates) {
+            if (usable(c, false) && (best == null || estimate(c, k) < estimate(best, k))) {
+                best = c;
+            }
+        }
+        return best.method;
+    }
+
+    /*
+        Number of times method was chosen, 0 if it is not a candidate
+     */
+    public synchronized long getDecisions(String method) {
+        for (Candidate c: candidates) {
+            if (c.method.contentEquals(method)) {
+                return c.chosen;
+            }
+        }
+        return 0;
+    }
+
+    /*
+        Estimated nanoseconds per query of method, NaN if it is not a candidate
+     */
+    public synchronized double getEstimate(String method, int k) {
+        for (Candidate c: candidates) {
+            if (c.method.contentEquals(method)) {
+                return estimate(c, k);
+            }
+        }
+        return Double.NaN;
+    }
+
+    /*
+        One line per candidate: decisions, estimate, observed latency and recall
+     */
+    public synchronized String metrics() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("planner n=").append(n).append(" dim=").append(dim)
+                .append(" recallTarget=").append(recallTarget)
+                .append(" decisions=").append(decisions).append('\n');
+        for (Candidate c: candidates) {
+            sb.append(String.format("  %-7s chosen=%d estimate=%.0fns observed=%.0fns (%d samples) recall=%s%n",
+                    c.method, c.chosen, estimate(c, knn.k), c.nsPerQuery, c.samples,
+                    c.index == null ? "-" : String.format("%.3f", c.recall)));
+        }
+        return sb.toString();
+    }
+}
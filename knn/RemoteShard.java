@@ -0,0 +1,258 @@
+package project_2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+    A shard served by a ShardServer in another JVM (or on another host),
+    used as one of the shards of a ShardedSearch.
+
+    Keeps a small pool of up to poolSize connections, opened when first
+    needed; each request takes one, so that many queries are in flight
+    at once and a slow batch does not hold up the others. A connection
+    that fails is closed and not used again.
+    Like the local indexes, a query w/ a dim other than the shard's
+    gets no neighbors; it is never sent, so the server always reads
+    whole queries.
+    Network errors surface as UncheckedIOException since NeighborSearch
+    methods do not throw.
+ */
+public class RemoteShard implements NeighborSearch {
+
+    private final String host;
+    private final int port;
+    private final int poolSize;
+    private final BlockingQueue<Connection> idle;
+    private int opened;             //guarded by idle
+    private volatile boolean closed;
+    private final int dim;
+
+    public RemoteShard(String host, int port) throws IOException {
+        this(host, port, 4);
+    }
+
+    public RemoteShard(String host, int port, int poolSize) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.poolSize = Math.max(1, poolSize);
+        this.idle = new ArrayBlockingQueue<>(this.poolSize);
+
+        Connection c;
+        try {
+            c = take();
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        try {
+            c.out.writeInt(ShardServer.DIM);
+            c.out.flush();
+            dim = c.in.readInt();
+        }
+        catch (IOException e) {
+            discard(c);
+            throw e;
+        }
+        release(c);
+    }
+
+    public int getDim() { return dim; }
+
+    public Neighbors search(double[] query, int k) {
+        return searchBatch(new double[][] {query}, k)[0];
+    }
+
+    public Neighbors[] searchBatch(double[][] queries, int k) {
+        Neighbors[] nn = new Neighbors[queries.length];
+        int[] send = new int[queries.length];     //queries w/ the shard's dim
+        int sent= 0;
+        for (int q= 0; q< queries.length; q++) {
+            if (queries[q].length == dim && k > 0) {
+                send[sent++] = q;
+            }
+            else {
+                nn[q] = new Neighbors(0);
+            }
+        }
+        if (sent == 0) {
+            return nn;
+        }
+
+        Connection c = take();
+        try {
+            //at most MAX_QUERIES per request
+            for (int from= 0; from< sent; from += ShardServer.MAX_QUERIES) {
+                int to = Math.min(sent, from + ShardServer.MAX_QUERIES);
+                c.out.writeInt(ShardServer.SEARCH);
+                c.out.writeInt(k);
+                c.out.writeInt(to - from);
+                c.out.writeInt(dim);
+                for (int i= from; i< to; i++) {
+                    for (double x: queries[send[i]]) {
+                        c.out.writeDouble(x);
+                    }
+                }
+                c.out.flush();
+
+                for (int i= from; i< to; i++) {
+                    nn[send[i]] = ShardServer.read(c.in);
+                }
+            }
+            release(c);
+            return nn;
+        }
+        catch (IOException e) {
+            discard(c);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Neighbors searchRadius(double[] query, double radius) {
+        if (query.length != dim) {
+            return new Neighbors(0);
+        }
+        Connection c = take();
+        try {
+            c.out.writeInt(ShardServer.RADIUS);
+            c.out.writeDouble(radius);
+            c.out.writeInt(query.length);
+            for (double x: query) {
+                c.out.writeDouble(x);
+            }
+            c.out.flush();
+            Neighbors nn = ShardServer.read(c.in);
+            release(c);
+            return nn;
+        }
+        catch (IOException e) {
+            discard(c);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+        i is the position in the shard's own training set
+     */
+    public void remove(int i) {
+        Connection c = take();
+        int reply;
+        try {
+            c.out.writeInt(ShardServer.REMOVE);
+            c.out.writeInt(i);
+            c.out.flush();
+            reply = c.in.readInt();
+            release(c);
+        }
+        catch (IOException e) {
+            discard(c);
+            throw new UncheckedIOException(e);
+        }
+        if (reply != 0) {
+            throw new UnsupportedOperationException("the shard server does not allow remove");
+        }
+    }
+
+    /*
+        Closes the idle connections now and the busy ones when they are
+        given back
+     */
+    public void close() throws IOException {
+        synchronized (idle) {
+            closed = true;
+        }
+        Connection c;
+        while ((c = idle.poll()) != null) {
+            c.socket.close();
+        }
+    }
+
+    /*
+        An idle connection, a new one if fewer than poolSize are open,
+        else waits for one to be given back (or to fail and make room)
+     */
+    private Connection take() {
+        try {
+            while (!closed) {
+                Connection c = idle.poll();
+                if (c != null) {
+                    return c;
+                }
+                boolean open;
+                synchronized (idle) {
+                    open = opened < poolSize;
+                    if (open) {
+                        opened++;
+                    }
+                }
+                if (open) {
+                    try {
+                        return connect();
+                    }
+                    catch (IOException e) {
+                        synchronized (idle) {
+                            opened--;
+                        }
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                c = idle.poll(100, TimeUnit.MILLISECONDS);
+                if (c != null) {
+                    return c;
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new IOException("interrupted waiting for a connection to " + host + ":" + port));
+        }
+        throw new UncheckedIOException(new IOException("shard " + host + ":" + port + " is closed"));
+    }
+
+    private Connection connect() throws IOException {
+        Socket socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        return new Connection(socket);
+    }
+
+    private void release(Connection c) {
+        synchronized (idle) {
+            if (!closed) {
+                idle.add(c);
+                return;
+            }
+        }
+        discard(c);
+    }
+
+    private void discard(Connection c) {
+        synchronized (idle) {
+            opened--;
+        }
+        try {
+            c.socket.close();
+        }
+        catch (IOException e) {
+            //already broken
+        }
+    }
+
+    private static class Connection {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+    }
+}
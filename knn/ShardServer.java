@@ -0,0 +1,317 @@
+package project_2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/*
+    Serves one shard of a training set to RemoteShard clients over TCP,
+    so a ShardedSearch coordinator can spread a reference set that does
+    not fit in one heap over several worker JVMs.
+
+    Protocol (DataInput/DataOutput, one request at a time per connection):
+        SEARCH: int op, int k, int numQueries, int dim, numQueries * dim doubles
+             -> per query: int size, size * (int id, double dist)
+        RADIUS: int op, double radius, int dim, dim doubles
+             -> int size, size * (int id, double dist)
+        REMOVE: int op, int position -> int 0, or int -1 if allowRemove is off
+        DIM:    int op -> int dim of the shard's rows
+
+    A request w/ a dim other than the shard's, k outside [1, MAX_K] or
+    more than MAX_QUERIES queries closes the connection before anything
+    is allocated for it.
+
+    There is no authentication: a server binds to the loopback address
+    unless it is given another one, which should be on a network only
+    the coordinator can reach. It serves at most maxConnections
+    connections at once (the rest are closed right away) and refuses
+    REMOVE unless allowRemove is set.
+
+    A worker (main()) streams the data file and keeps only the features
+    of its own partition. The coordinator needs no features at all: it
+    reads the labels w/ Labels.read() and searches the workers through
+    KNearestNeighbor.useShards():
+
+        RemoteShard[] shards = { new RemoteShard("host1", 7001), ... };
+        knn.useShards(shards, Labels.read(file, classPos, classification));
+ */
+public class ShardServer implements Runnable {
+
+    static final int SEARCH = 1;
+    static final int RADIUS = 2;
+    static final int REMOVE = 3;
+    static final int DIM = 4;
+
+    static final int MAX_QUERIES = 1 << 16;
+    static final int MAX_K = 1 << 16;
+
+    public boolean allowRemove = false;
+
+    private final NeighborSearch index;
+    private final int dim;
+    private final ServerSocket server;
+    private final ThreadPoolExecutor connections;
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+
+    /*
+        Serves index, whose rows have dim features, on port of the
+        loopback address w/ at most 16 connections
+     */
+    public ShardServer(NeighborSearch index, int dim, int port) throws IOException {
+        this(index, dim, InetAddress.getLoopbackAddress(), port, 16);
+    }
+
+    public ShardServer(NeighborSearch index, int dim, InetAddress bindAddress, int port, int maxConnections) throws IOException {
+        this.index = index;
+        this.dim = dim;
+        this.server = new ServerSocket(port, 50, bindAddress);
+        this.connections = new ThreadPoolExecutor(0, maxConnections, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread t = new Thread(r, "shard-connection");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public int getPort() { return server.getLocalPort(); }
+
+    /*
+        Starts accepting connections on a daemon thread
+     */
+    public ShardServer start() {
+        Thread t = new Thread(this, "shard-server-" + getPort());
+        t.setDaemon(true);
+        t.start();
+        return this;
+    }
+
+    public void run() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                try {
+                    connections.execute(() -> serve(socket));
+                }
+                catch (RejectedExecutionException e) {
+                    //all maxConnections busy
+                    socket.close();
+                }
+            }
+            catch (IOException e) {
+                if (!server.isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        open.add(socket);
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            s.setTcpNoDelay(true);
+            while (true) {
+                int op = in.readInt();
+                if (op == SEARCH) {
+                    int k = in.readInt();
+                    int numQueries = in.readInt();
+                    if (k < 1 || k > MAX_K || numQueries < 0 || numQueries > MAX_QUERIES) {
+                        throw new IOException("bad request: k " + k + ", " + numQueries + " queries");
+                    }
+                    double[][] queries = readQueries(in, numQueries);
+                    Neighbors[] nn = index.searchBatch(queries, k);
+                    for (Neighbors n: nn) {
+                        write(out, n);
+                    }
+                }
+                else if (op == RADIUS) {
+                    double radius = in.readDouble();
+                    if (!(radius >= 0 && radius < Double.POSITIVE_INFINITY)) {
+                        throw new IOException("bad request: radius " + radius);
+                    }
+                    write(out, index.searchRadius(readQueries(in, 1)[0], radius));
+                }
+                else if (op == REMOVE) {
+                    int position = in.readInt();
+                    if (allowRemove) {
+                        index.remove(position);
+                    }
+                    out.writeInt(allowRemove ? 0 : -1);
+                }
+                else if (op == DIM) {
+                    out.writeInt(dim);
+                }
+                else {
+                    throw new IOException("unknown op " + op);
+                }
+                out.flush();
+            }
+        }
+        catch (EOFException e) {
+            //client closed the connection
+        }
+        catch (IOException e) {
+            if (!server.isClosed()) {
+                e.printStackTrace();
+            }
+        }
+        finally {
+            open.remove(socket);
+        }
+    }
+
+    private double[][] readQueries(DataInputStream in, int numQueries) throws IOException {
+        int queryDim = in.readInt();
+        if (queryDim != dim) {
+            throw new IOException("bad request: dim " + queryDim + ", the shard has " + dim);
+        }
+        double[][] queries = new double[numQueries][dim];
+        for (double[] q: queries) {
+            for (int j= 0; j< dim; j++) {
+                q[j] = in.readDouble();
+            }
+        }
+        return queries;
+    }
+
+    static void write(DataOutputStream out, Neighbors nn) throws IOException {
+        out.writeInt(nn.size);
+        for (int n= 0; n< nn.size; n++) {
+            out.writeInt(nn.ids[n]);
+            out.writeDouble(nn.dists[n]);
+        }
+    }
+
+    static Neighbors read(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Neighbors nn = new Neighbors(size);
+        for (int n= 0; n< size; n++) {
+            nn.ids[n] = in.readInt();
+            nn.dists[n] = in.readDouble();
+        }
+        nn.size = size;
+        return nn;
+    }
+
+    /*
+        Stops accepting connections and closes the open ones
+     */
+    public void close() throws IOException {
+        server.close();
+        for (Socket s: open) {
+            s.close();
+        }
+        connections.shutdownNow();
+    }
+
+    /*
+        Parses every non-blank line of fileName into a DataC (same classPos /
+        "classification" / "regression" handling as DataSetUp) and hands
+        it to row, one line at a time. Ids are line numbers starting at 1,
+        like BulkScorer, so workers and coordinator agree on them.
+     */
+    static void readRows(String fileName, String classPos, String clOrReg, Consumer<DataC> row) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            int lineNo = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                if (!line.trim().isEmpty()) {
+                    row.accept(new DataC(line, lineNo, classPos, clOrReg));
+                }
+            }
+        }
+    }
+
+    /*
+        The rows of fileName in shard (of numShards, "hash" partitioned
+        like ShardedSearch) as a DataStore. Streams the file, so only this
+        partition is ever held in memory.
+     */
+    static DataStore readPartition(String fileName, String classPos, String clOrReg,
+                                   int shard, int numShards) throws IOException {
+        Partition part = new Partition(shard, numShards);
+        readRows(fileName, classPos, clOrReg, part);
+        return part.toStore();
+    }
+
+    /*
+        Collects the features and ids of the rows in one shard
+     */
+    private static class Partition implements Consumer<DataC> {
+        final int shard;
+        final int numShards;
+        double[] features = new double[1024];
+        int[] ids = new int[128];
+        int size;
+        int dim;
+
+        Partition(int shard, int numShards) {
+            this.shard = shard;
+            this.numShards = numShards;
+        }
+
+        public void accept(DataC d) {
+            if (ShardedSearch.hashShard(d.getID(), numShards) != shard) {
+                return;
+            }
+            double[] x = d.getFeatures();
+            dim = x.length;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * size);
+            }
+            if ((size + 1) * dim > features.length) {
+                features = Arrays.copyOf(features, Math.max(2 * features.length, (size + 1) * dim));
+            }
+            System.arraycopy(x, 0, features, size * dim, dim);
+            ids[size++] = d.getID();
+        }
+
+        DataStore toStore() {
+            return new DataStore(dim, Arrays.copyOf(features, size * dim), Arrays.copyOf(ids, size), null);
+        }
+    }
+
+    /*
+        Runs a worker: args = data file, class position, "classification"
+        or "regression", shard number, number of shards, port and
+        optionally the address to bind to (loopback if not given) and
+        the searchMethod of the shard's index ("linear" if not given).
+        Rows are hash partitioned the same way as ShardedSearch.
+     */
+    public static void main(String[] args) throws IOException {
+        int shard = Integer.parseInt(args[3]);
+        int numShards = Integer.parseInt(args[4]);
+
+        //serve only this worker's part
+        DataStore part = readPartition(args[0], args[1], args[2], shard, numShards);
+
+        KNearestNeighbor knn = new KNearestNeighbor(new DataC[0], 0, args[2].contentEquals("classification"));
+        if (args.length > 7) {
+            knn.searchMethod = args[7];
+        }
+        InetAddress bindAddress = args.length > 6 ? InetAddress.getByName(args[6]) : InetAddress.getLoopbackAddress();
+        ShardServer server = new ShardServer(knn.buildLocalIndex(part), part.dim, bindAddress, Integer.parseInt(args[5]), 16);
+        System.out.println("Shard " + shard + " / " + numShards + " (" + part.size + " rows, " + knn.searchMethod + ") on "
+                + bindAddress.getHostAddress() + ":" + server.getPort());
+        server.run();
+    }
+}
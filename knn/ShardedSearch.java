@@ -0,0 +1,202 @@
+package project_2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+    Scatter-gather search over several shards of the training set.
+
+    Every query is sent to all shards at once, each shard returns its
+    own k nearest, and the k nearest of those are the k nearest overall.
+    A shard is any NeighborSearch: an index in this JVM (the "hash" or
+    "range" partitions KNearestNeighbor.buildIndex() makes when
+    shards > 1) or a RemoteShard talking to a ShardServer in another
+    JVM. Shards return DataC ids, so the weighted vote / average run
+    on the coordinator as usual.
+
+    All ShardedSearch instances share one pool of daemon threads that
+    grows w/ the shard calls in flight (a RemoteShard call blocks on the
+    network) and lets idle threads go, so a new index per fold or per
+    publish() does not leave a pool behind.
+ */
+public class ShardedSearch implements NeighborSearch {
+
+    private static final ExecutorService SHARD_THREADS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "shard-search");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private NeighborSearch[] shards;
+    private int[] shardOf;          //shard of dataSet[i], -1 if not local or not indexed
+    private int[] localPosition;    //position of dataSet[i] inside its shard
+
+    /*
+        Shards that already exist (e.g. RemoteShards), remove() is not
+        supported for these
+     */
+    public ShardedSearch(NeighborSearch[] shards) {
+        this.shards = shards;
+        this.shardOf = new int[0];
+        this.localPosition = new int[0];
+    }
+
+    /*
+        Partitions the rows of store into numShards shards by "hash" of
+        the id or by "range" of position, and builds the local index of
+        each w/ knn.buildLocalIndex(). Every shard gets its own DataStore
+        w/ a copy of its rows, so the shards do not share memory.
+     */
+    public ShardedSearch(KNearestNeighbor knn, DataStore store, int numShards, String partition) {
+        int dim = store.dim;
+        int[] shardOfRow = new int[store.size];
+        int[] rowInShard = new int[store.size];
+        int[] count = new int[numShards];
+        for (int r= 0; r< store.size; r++) {
+            int s;
+            if (partition.contentEquals("range")) {
+                s = (int) ((long) r * numShards / store.size);
+            }
+            else {
+                s = hashShard(store.ids[r], numShards);
+            }
+            shardOfRow[r] = s;
+            rowInShard[r] = count[s]++;
+        }
+
+        double[][] features = new double[numShards][];
+        int[][] ids = new int[numShards][];
+        String[][] labels = new String[numShards][];
+        for (int s= 0; s< numShards; s++) {
+            features[s] = new double[count[s] * dim];
+            ids[s] = new int[count[s]];
+            labels[s] = new String[count[s]];
+        }
+        for (int r= 0; r< store.size; r++) {
+            int s = shardOfRow[r];
+            System.arraycopy(store.features, r * dim, features[s], rowInShard[r] * dim, dim);
+            ids[s][rowInShard[r]] = store.ids[r];
+            labels[s][rowInShard[r]] = store.classLabels[r];
+        }
+        DataStore[] parts = new DataStore[numShards];
+        for (int s= 0; s< numShards; s++) {
+            parts[s] = new DataStore(dim, features[s], ids[s], labels[s]);
+        }
+
+        //positions of the caller's DataC[] (see remove())
+        shardOf = new int[store.position.length];
+        localPosition = new int[store.position.length];
+        for (int i= 0; i< shardOf.length; i++) {
+            int r = store.position[i];
+            shardOf[i] = r < 0 ? -1 : shardOfRow[r];
+            localPosition[i] = r < 0 ? -1 : rowInShard[r];
+        }
+
+        shards = new NeighborSearch[numShards];
+        List<CompletableFuture<Void>> builds = new ArrayList<>();
+        for (int s= 0; s< numShards; s++) {
+            final int shard = s;
+            builds.add(CompletableFuture.runAsync(() -> {
+                shards[shard] = knn.buildLocalIndex(parts[shard]);
+            }, SHARD_THREADS));
+        }
+        joinAll(builds);
+    }
+
+    /*
+        Waits for tasks, a shard's exception is thrown as is
+     */
+    private static void joinAll(List<CompletableFuture<Void>> tasks) {
+        for (CompletableFuture<Void> task: tasks) {
+            try {
+                task.join();
+            }
+            catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /*
+        Shard of a row w/ the given id under "hash" partitioning
+     */
+    public static int hashShard(int id, int numShards) {
+        return Math.floorMod(id * 0x9E3779B9, numShards);
+    }
+
+    public int numShards() { return shards.length; }
+
+    public Neighbors search(double[] query, int k) {
+        return searchBatch(new double[][] {query}, k)[0];
+    }
+
+    public Neighbors[] searchBatch(double[][] queries, int k) {
+        //scatter
+        Neighbors[][] found = new Neighbors[shards.length][];
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (int s= 1; s< shards.length; s++) {
+            final int shard = s;
+            tasks.add(CompletableFuture.runAsync(() -> {
+                found[shard] = shards[shard].searchBatch(queries, k);
+            }, SHARD_THREADS));
+        }
+        if (shards.length > 0) {
+            found[0] = shards[0].searchBatch(queries, k);      //on the calling thread
+        }
+        joinAll(tasks);
+
+        //gather
+        Neighbors[] nn = new Neighbors[queries.length];
+        for (int q= 0; q< queries.length; q++) {
+            TopK best = new TopK(k);
+            for (Neighbors[] shard: found) {
+                Neighbors part = shard[q];
+                for (int n= 0; n< part.size; n++) {
+                    double d = part.dists[n] * part.dists[n];
+                    if (d < best.bound()) {
+                        best.offer(d, part.ids[n]);
+                    }
+                }
+            }
+            nn[q] = best.toNeighbors();
+        }
+
+        return nn;
+    }
+
+    public Neighbors searchRadius(double[] query, double radius) {
+        Neighbors[] found = new Neighbors[shards.length];
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (int s= 1; s< shards.length; s++) {
+            final int shard = s;
+            tasks.add(CompletableFuture.runAsync(() -> {
+                found[shard] = shards[shard].searchRadius(query, radius);
+            }, SHARD_THREADS));
+        }
+        if (shards.length > 0) {
+            found[0] = shards[0].searchRadius(query, radius);       //on the calling thread
+        }
+        joinAll(tasks);
+
+        TopK inside = TopK.unbounded();
+        for (Neighbors part: found) {
+            for (int n= 0; n< part.size; n++) {
+                inside.offer(part.dists[n] * part.dists[n], part.ids[n]);
+            }
+        }
+        return inside.toNeighbors();
+    }
+
+    public void remove(int i) {
+        if (i < shardOf.length && shardOf[i] >= 0) {
+            shards[shardOf[i]].remove(localPosition[i]);
+        }
+    }
+}
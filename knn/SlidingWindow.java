@@ -0,0 +1,350 @@
+package project_2;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+    Streaming training set for KNearestNeighbor.stream(). Labeled rows
+    are appended as they arrive and rows drop out once there are more
+    than maxRows of them or they are older than maxAge.
+
+    Rows live in a ring of fixed size segments of SEGMENT_SIZE rows.
+    New rows go into the open segment, which is scanned linearly. A
+    full segment is sealed into its own KDTree (built once, so an
+    insert costs O(log(SEGMENT_SIZE)) amortized). Expired rows are
+    removed from their segment's tree, and a segment is dropped once
+    all of its rows expired. Nothing is ever rebuilt.
+
+    A row's id is its slot in the ring + 1, so predictions use the same
+    Labels lookup and voting as the batch model, w/ the k / epsilon /
+    sigma and regression settings the KNearestNeighbor had when the
+    window was made (later changes to it do not apply). Inserts take a
+    write lock and queries a read lock, so rows can be added while
+    other threads predict.
+
+    Rows expire in add() and expire(). predictClass() / predictValue()
+    w/ a time first expire what is older than time - maxAge, so a query
+    after a quiet period does not see stale rows; w/o a time they see
+    the window as of the last add() / expire().
+ */
+public class SlidingWindow implements NeighborSearch {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    private final KNearestNeighbor settings;    //private copy, never changed
+    private final KNNParams params;
+    private final int dim;
+    private final int maxRows;
+    private final long maxAge;
+    private final int capacity;             //ring slots, a multiple of SEGMENT_SIZE
+
+    private final double[] features;        //row-major, slot s at features[s * dim]
+    private final long[] times;
+    private final boolean[] removed;        //removed early w/ remove()
+    private final Labels labels;            //indexed by slot, like id - 1
+
+    private final ArrayDeque<Segment> sealed = new ArrayDeque<>();
+    private long oldest;                    //sequence number of the oldest live row
+    private long next;                      //sequence number of the next row
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /*
+        A full segment, rows first .. first + SEGMENT_SIZE - 1
+     */
+    private static class Segment {
+        final long first;
+        final KDTree tree;
+
+        Segment(long first, KDTree tree) {
+            this.first = first;
+            this.tree = tree;
+        }
+    }
+
+    /*
+        maxRows > 0 rows at most, maxAge = 0 for no age limit
+     */
+    public SlidingWindow(KNearestNeighbor knn, int dim, int maxRows, long maxAge) {
+        this.settings = new KNearestNeighbor(knn);
+        this.settings.data = new DataC[0];     //the rows are in features
+        this.settings.reducedData = null;
+        this.params = settings.getParams();
+        this.dim = dim;
+        this.maxRows = maxRows;
+        this.maxAge = maxAge;
+
+        //room for the live rows + the open segment
+        int segments = (maxRows + SEGMENT_SIZE - 1) / SEGMENT_SIZE + 1;
+        this.capacity = segments * SEGMENT_SIZE;
+        this.features = new double[capacity * dim];
+        this.times = new long[capacity];
+        this.removed = new boolean[capacity];
+        this.labels = new Labels(settings.classification ? new int[capacity] : new int[0],
+                settings.classification ? new double[0] : new double[capacity]);
+    }
+
+    /*
+        Appends a labeled row seen at time, expires what fell out of the window
+     */
+    public void add(double[] x, String label, long time) {
+        lock.writeLock().lock();
+        try {
+            int slot = (int) (next % capacity);
+            System.arraycopy(x, 0, features, slot * dim, dim);
+            times[slot] = time;
+            removed[slot] = false;
+            if (settings.classification) {
+                labels.classes[slot] = Integer.parseInt(label);
+            }
+            else {
+                labels.values[slot] = Double.parseDouble(label);
+            }
+            next++;
+
+            if (next % SEGMENT_SIZE == 0) {
+                seal(next - SEGMENT_SIZE);
+            }
+
+            expireRows(time);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void add(DataC row, long time) {
+        add(row.getFeatures(), row.getClassLabel(), time);
+    }
+
+    /*
+        Expires rows older than now - maxAge, returns how many
+     */
+    public int expire(long now) {
+        lock.writeLock().lock();
+        try {
+            return expireRows(now);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /*
+        expire(now), but only takes the write lock if a row is too old
+     */
+    private void expireBefore(long now) {
+        if (maxAge <= 0) {
+            return;
+        }
+        boolean stale;
+        lock.readLock().lock();
+        try {
+            stale = oldest < next && times[(int) (oldest % capacity)] < now - maxAge;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        if (stale) {
+            expire(now);
+        }
+    }
+
+    private int expireRows(long now) {
+        int count= 0;
+        while (oldest < next && (next - oldest > maxRows
+                || (maxAge > 0 && times[(int) (oldest % capacity)] < now - maxAge))) {
+            Segment first = sealed.peekFirst();
+            if (first != null && first.first <= oldest) {
+                first.tree.remove((int) (oldest - first.first));
+                if (oldest == first.first + SEGMENT_SIZE - 1) {
+                    sealed.pollFirst();
+                }
+            }
+            oldest++;
+            count++;
+        }
+        return count;
+    }
+
+    /*
+        Builds the tree of the full segment starting at row first
+     */
+    private void seal(long first) {
+        int base = (int) (first % capacity);
+        DataC[] rows = new DataC[SEGMENT_SIZE];
+        for (int i= 0; i< SEGMENT_SIZE; i++) {
+            double[] x = new double[dim];
+            System.arraycopy(features, (base + i) * dim, x, 0, dim);
+            rows[i] = new DataC(x, base + i + 1);
+        }
+
+        KDTree tree = new KDTree(rows);
+        for (int i= 0; i< SEGMENT_SIZE; i++) {
+            if (first + i < oldest || removed[base + i]) {
+                tree.remove(i);     //expired or removed while open
+            }
+        }
+        if (oldest < first + SEGMENT_SIZE) {
+            sealed.addLast(new Segment(first, tree));
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return (int) (next - oldest);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Neighbors search(double[] query, int k) {
+        lock.readLock().lock();
+        try {
+            return searchLocked(query, k);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Neighbors searchLocked(double[] query, int k) {
+        TopK best = new TopK(k);
+        if (query.length != dim) {
+            return best.toNeighbors();
+        }
+
+        for (Segment s: sealed) {
+            Neighbors nn = s.tree.search(query, k);
+            for (int n= 0; n< nn.size; n++) {
+                double d = nn.dists[n] * nn.dists[n];
+                if (d < best.bound()) {
+                    best.offer(d, nn.ids[n]);
+                }
+            }
+        }
+
+        //open segment
+        for (long seq= Math.max(oldest, next - next % SEGMENT_SIZE); seq< next; seq++) {
+            int slot = (int) (seq % capacity);
+            if (removed[slot]) {
+                continue;
+            }
+            double bound = best.bound();
+            double d = Distance.squaredEuclidean(features, slot * dim, query, bound);
+            if (d < bound) {
+                best.offer(d, slot + 1);
+            }
+        }
+
+        return best.toNeighbors();
+    }
+
+    public Neighbors searchRadius(double[] query, double radius) {
+        lock.readLock().lock();
+        try {
+            return searchRadiusLocked(query, radius);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Neighbors searchRadiusLocked(double[] query, double radius) {
+        TopK inside = TopK.unbounded();
+        if (query.length != dim) {
+            return inside.toNeighbors();
+        }
+
+        for (Segment s: sealed) {
+            Neighbors nn = s.tree.searchRadius(query, radius);
+            for (int n= 0; n< nn.size; n++) {
+                inside.offer(nn.dists[n] * nn.dists[n], nn.ids[n]);
+            }
+        }
+
+        double bound = radius * radius;
+        for (long seq= Math.max(oldest, next - next % SEGMENT_SIZE); seq< next; seq++) {
+            int slot = (int) (seq % capacity);
+            if (removed[slot]) {
+                continue;
+            }
+            double d = Distance.squaredEuclidean(features, slot * dim, query, bound);
+            if (d < bound) {
+                inside.offer(d, slot + 1);
+            }
+        }
+
+        return inside.toNeighbors();
+    }
+
+    /*
+        Class of query from the rows currently in the window
+     */
+    public int predictClass(double[] query) {
+        lock.readLock().lock();
+        try {
+            return settings.voteClass(searchLocked(query, params.k), labels);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+        Class of query from the rows of the window at time now
+     */
+    public int predictClass(double[] query, long now) {
+        expireBefore(now);
+        return predictClass(query);
+    }
+
+    /*
+        Response value of query from the rows currently in the window
+     */
+    public double predictValue(double[] query) {
+        lock.readLock().lock();
+        try {
+            Neighbors nn = null;
+            if (settings.isKernelRegression()) {
+                nn = searchRadiusLocked(query, settings.kernelSupport * params.sigma);
+            }
+            if (nn == null || nn.size == 0) {
+                nn = searchLocked(query, params.k);
+            }
+            return settings.predictValue(nn, params, labels);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+        Response value of query from the rows of the window at time now
+     */
+    public double predictValue(double[] query, long now) {
+        expireBefore(now);
+        return predictValue(query);
+    }
+
+    /*
+        Drops the row in ring slot i (id i + 1) before it expires
+     */
+    public void remove(int i) {
+        lock.writeLock().lock();
+        try {
+            removed[i] = true;
+            for (Segment s: sealed) {
+                int base = (int) (s.first % capacity);
+                if (i >= base && i < base + SEGMENT_SIZE) {
+                    s.tree.remove(i - base);
+                }
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
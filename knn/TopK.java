@@ -0,0 +1,120 @@
+package project_2;
+
+import java.util.Arrays;
+
+/*
+    Bounded top-k selection. Keeps the k smallest (squared distance, id)
+    pairs seen so far in a primitive max-heap, so the current kth best
+    is always at the root and can be used as a bound to abandon
+    distance computations early.
+
+    Distances are squared while in the heap, the square root is only
+    taken for the k accepted neighbors in toNeighbors().
+ */
+public class TopK {
+
+    private double[] dist;
+    private int[] id;
+    private int size;
+    private boolean growable;
+
+    public TopK(int k) {
+        this.dist = new double[k];
+        this.id = new int[k];
+        this.size = 0;
+    }
+
+    /*
+        Squared distance a candidate has to beat to be accepted
+     */
+    public double bound() {
+        if (size < dist.length) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return dist[0];
+    }
+
+    /*
+        Adds the candidate if it is closer than the kth best,
+        ties keep the candidate that was offered first
+     */
+    public void offer(double d, int i) {
+        if (growable && size == dist.length) {
+            dist = Arrays.copyOf(dist, 2 * size);
+            id = Arrays.copyOf(id, 2 * size);
+        }
+        if (size < dist.length) {
+            //sift up
+            int c = size++;
+            while (c > 0) {
+                int p = (c - 1) >>> 1;
+                if (dist[p] >= d) {
+                    break;
+                }
+                dist[c] = dist[p];
+                id[c] = id[p];
+                c = p;
+            }
+            dist[c] = d;
+            id[c] = i;
+        }
+        else if (size > 0 && d < dist[0]) {
+            siftDown(d, i, size);
+        }
+    }
+
+    /*
+        Replaces the root with (d, i) and restores the heap over [0, n)
+     */
+    private void siftDown(double d, int i, int n) {
+        int c = 0;
+        while (true) {
+            int l = 2 * c + 1;
+            if (l >= n) {
+                break;
+            }
+            int r = l + 1;
+            int big = (r < n && dist[r] > dist[l]) ? r : l;
+            if (dist[big] <= d) {
+                break;
+            }
+            dist[c] = dist[big];
+            id[c] = id[big];
+            c = big;
+        }
+        dist[c] = d;
+        id[c] = i;
+    }
+
+    public int size() { return size; }
+
+    /*
+        Collects every candidate offered, for radius queries
+     */
+    public static TopK unbounded() {
+        return new TopK(16, true);
+    }
+
+    private TopK(int capacity, boolean growable) {
+        this(capacity);
+        this.growable = growable;
+    }
+
+    /*
+        Empties the heap into a Neighbors result sorted closest first
+     */
+    public Neighbors toNeighbors() {
+        Neighbors nn = new Neighbors(growable ? size : dist.length);
+        nn.size = size;
+
+        //pop the max to the back until the heap is empty
+        for (int n= size - 1; n>= 0; n--) {
+            nn.dists[n] = Math.sqrt(dist[0]);
+            nn.ids[n] = id[0];
+            siftDown(dist[n], id[n], n);
+        }
+        size = 0;
+
+        return nn;
+    }
+}
@@ -25,7 +25,7 @@ public class DE {
 	/*
 	 * Init pop like GA, and start while loop and for loop to go through each individual in pop and do mut->cross->rep until done
 	 */
-	public DE(int populationSize, DataC[] trainingData, int[] layers, boolean isClassification) {
+	public DE(int populationSize, DataC[] trainingData, DataStore store, int[] layers, boolean isClassification) {
         population = new FeedForwardNet[populationSize];
         
         //all of this is hard coded rn
@@ -34,7 +34,7 @@ public class DE {
         crossoverProb = .5; //makes it the same as GA
 
         for (int i= 0; i< populationSize; i++) {
-            population[i] = new FeedForwardNet(trainingData, layers, isClassification);
+            population[i] = new FeedForwardNet(trainingData, store, layers, isClassification);
         }
 	}
 	
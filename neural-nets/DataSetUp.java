@@ -13,6 +13,7 @@ public class DataSetUp {
 	public DataC[] data;
 	public final int length;
 	public boolean isClassification;
+	private DataStore store;
     
 	public DataSetUp(String fileName, String classPos, String clOrReg) {
 		
@@ -50,6 +51,16 @@ public class DataSetUp {
 		return this.data;
 	}
 
+	/*
+		All rows in one columnar DataStore, rebuilt after zScoreNormalize()
+	 */
+	public DataStore getStore() {
+		if (store == null) {
+			store = new DataStore(data, isClassification);
+		}
+		return store;
+	}
+
 	public void zScoreNormalize() {
 		//get means of all features
 		//get SD of all features
@@ -82,6 +93,7 @@ public class DataSetUp {
 		}
 
 		//normalize data
+		store = null;
 		for (DataC d : data) {
 			double[] normFeatures = new double[data[0].getFeatures().length];
 			double[] features = d.getFeatures();
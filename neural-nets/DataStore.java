@@ -0,0 +1,101 @@
+import java.util.Arrays;
+
+/*
+    Columnar copy of the rows of a DataC[] - all normalized feature
+    vectors in one contiguous row-major double[] plus primitive id and
+    target arrays. The DataC rows stay the rows backprop() and
+    evaluate() walk; the store is built from them so updateFitness()
+    does not parse a label per row on every GA / DE / PSO evaluation.
+
+    Every row has to be normalized first (DataSetUp.zScoreNormalize()),
+    like FeedForwardNet expects of its inputs.
+
+    DataSetUp.getStore() builds one store per data set and every
+    FeedForwardNet trained on it shares that store. Same layout and
+    row() methods as the DataStore of the knn project.
+ */
+public class DataStore {
+
+    public final int size;
+    public final int dim;
+    public final double[] features;     //row r at features[r * dim]
+    public final int[] ids;
+    public final int[] classes;         //classification only, 0-based
+    public final double[] values;       //regression only
+    private final double[][] from;      //normalized features the rows were copied from
+
+    public DataStore(DataC[] dataSet, boolean isClassification) {
+        int n= 0;
+        int d= 0;
+        for (DataC row: dataSet) {
+            if (row != null) {
+                d = input(row).length;
+                n++;
+            }
+        }
+
+        this.size = n;
+        this.dim = d;
+        this.features = new double[n * d];
+        this.ids = new int[n];
+        this.classes = isClassification ? new int[n] : null;
+        this.values = isClassification ? null : new double[n];
+        this.from = new double[n][];
+
+        int r= 0;
+        for (DataC row: dataSet) {
+            if (row != null) {
+                from[r] = input(row);
+                System.arraycopy(from[r], 0, features, r * dim, dim);
+                ids[r] = row.getID();
+                if (isClassification) {
+                    classes[r] = Integer.parseInt(row.getClassLabel()) - 1;
+                }
+                else {
+                    values[r] = Double.parseDouble(row.getClassLabel());
+                }
+                r++;
+            }
+        }
+    }
+
+    private static double[] input(DataC row) {
+        if (row.getNormalizedFeatures() == null) {
+            throw new IllegalArgumentException("row " + row.getID() + " is not normalized, call zScoreNormalize() first");
+        }
+        return row.getNormalizedFeatures();
+    }
+
+    /*
+        True if the store was built from dataSet as it is now: the same
+        rows in the same order w/ the same normalized features (a new
+        zScoreNormalize() gives every row new ones)
+     */
+    public boolean matches(DataC[] dataSet) {
+        int r= 0;
+        for (DataC row: dataSet) {
+            if (row != null) {
+                if (r == size || ids[r] != row.getID() || from[r] != row.getNormalizedFeatures()) {
+                    return false;
+                }
+                r++;
+            }
+        }
+        return r == size;
+    }
+
+    /*
+        Copies the features of row r into buf
+     */
+    public double[] row(int r, double[] buf) {
+        System.arraycopy(features, r * dim, buf, 0, dim);
+        return buf;
+    }
+
+    /*
+        Copy of the features of row r
+     */
+    public double[] row(int r) {
+        return Arrays.copyOfRange(features, r * dim, r * dim + dim);
+    }
+}
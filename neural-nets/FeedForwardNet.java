@@ -150,6 +150,7 @@ public class FeedForwardNet {
 
     public Layer[] network;
     public DataC[] data;
+    public DataStore store;
     public double eta;
     public boolean isClassification;
     public double fitness;
@@ -163,7 +164,20 @@ public class FeedForwardNet {
         For regression, layers should be [numFeatures, ..., 1]
      */
     public FeedForwardNet(DataC[] trainingData, int[] layers, boolean isClassification) {
+        this(trainingData, new DataStore(trainingData, isClassification), layers, isClassification);
+    }
+
+    /*
+        Same, w/ the rows of trainingData already in store (see
+        DataSetUp.getStore()), so a population of nets shares one copy.
+        The store has to be built from trainingData as it is now.
+     */
+    public FeedForwardNet(DataC[] trainingData, DataStore store, int[] layers, boolean isClassification) {
+        if (!store.matches(trainingData)) {
+            throw new IllegalArgumentException("store was not built from trainingData (or it was normalized again since)");
+        }
         this.data = trainingData;
+        this.store = store;
         this.eta = 0.5;
         this.isClassification = isClassification;
         this.fitness = 0;
@@ -180,6 +194,7 @@ public class FeedForwardNet {
     public FeedForwardNet(FeedForwardNet clone) {
     	this.network = clone.network;
     	this.data = clone.data;
+    	this.store = clone.store;
     	this.eta = clone.eta;
     	this.isClassification = clone.isClassification;
     	this.fitness = clone.fitness;
@@ -450,33 +465,33 @@ public class FeedForwardNet {
         }
     }
 
+    /*
+        Mean squared error over all training rows, walks the columnar
+        store instead of parsing every label again
+     */
     public void updateFitness() {
         double totalError = 0;
+        double[] in = new double[store.dim];
+        double[] t = new double[network[network.length-1].nodes.length];
 
-        for (DataC d : data) {
-            double[] output = feedForward(d.getNormalizedFeatures());
-            double target;
-            double[] t;
+        for (int r= 0; r< store.size; r++) {
+            double[] output = feedForward(store.row(r, in));
 
             //CLASSIFICATION
             if (isClassification) {
-                target = Integer.parseInt(d.getClassLabel()) - 1;
-                t = new double[output.length];
                 Arrays.fill(t, 0);
-                t[(int) target] = 1;
+                t[store.classes[r]] = 1;
             }
             //REGRESSION
             else {
-                target = Double.parseDouble(d.getClassLabel());
-                t = new double[output.length];
-                t[0] = target;
+                t[0] = store.values[r];
             }
 
             totalError += error(output, t);
 
         }
 
-        totalError /= data.length;
+        totalError /= store.size;
 
         this.fitness = totalError;
     }
@@ -9,12 +9,12 @@ public class Genetic {
     /*
         Init population
      */
-    public Genetic(int populationSize, DataC[] trainingData, int[] layers, boolean isClassification) {
+    public Genetic(int populationSize, DataC[] trainingData, DataStore store, int[] layers, boolean isClassification) {
         population = new FeedForwardNet[populationSize];
         mutationRate = 0.05;
 
         for (int i= 0; i< populationSize; i++) {
-            population[i] = new FeedForwardNet(trainingData, layers, isClassification);
+            population[i] = new FeedForwardNet(trainingData, store, layers, isClassification);
         }
 
         evaluate();
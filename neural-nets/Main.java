@@ -53,22 +53,22 @@ public class Main {
         System.out.println("Training...");
         switch (trainingMethod) {
             case 1 -> {
-                FeedForwardNet net = new FeedForwardNet(dataSets.get(dataSet).data, layers, isCl[dataSet]);
+                FeedForwardNet net = new FeedForwardNet(dataSets.get(dataSet).data, dataSets.get(dataSet).getStore(), layers, isCl[dataSet]);
                 net.backprop(dataSets.get(dataSet).data, 10000);
                 net.evaluate();
             }
             case 2 -> {
-                Genetic G = new Genetic(20, dataSets.get(dataSet).data, layers, isCl[dataSet]);
+                Genetic G = new Genetic(20, dataSets.get(dataSet).data, dataSets.get(dataSet).getStore(), layers, isCl[dataSet]);
                 G.GA(2000);
                 G.population[0].evaluate();
             }
             case 3 -> {
-                ParticleSwarm P = new ParticleSwarm(20, dataSets.get(dataSet).data, layers, isCl[dataSet]);
+                ParticleSwarm P = new ParticleSwarm(20, dataSets.get(dataSet).data, dataSets.get(dataSet).getStore(), layers, isCl[dataSet]);
                 P.PSO(5000);
                 P.particles[0].pBest.evaluate();
             }
             case 4 -> {
-                DE D = new DE(20, dataSets.get(dataSet).data, layers, isCl[dataSet]);
+                DE D = new DE(20, dataSets.get(dataSet).data, dataSets.get(dataSet).getStore(), layers, isCl[dataSet]);
                 D.DiffEvolution(2000);
                 D.population[0].evaluate();
             }
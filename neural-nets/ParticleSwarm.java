@@ -26,10 +26,10 @@ public class ParticleSwarm {
         public double w, c1, c2;
         public int local;
 
-        public Particle(DataC[] trainingData, int[] layers, boolean isClassification, double w, double c1, double c2, int local) {
-            position = new FeedForwardNet(trainingData, layers, isClassification);
+        public Particle(DataC[] trainingData, DataStore store, int[] layers, boolean isClassification, double w, double c1, double c2, int local) {
+            position = new FeedForwardNet(trainingData, store, layers, isClassification);
             pBestError = Double.POSITIVE_INFINITY;
-            pBest = new FeedForwardNet(trainingData, layers, isClassification);
+            pBest = new FeedForwardNet(trainingData, store, layers, isClassification);
             velocity = position.getWeights();
             this.w = w;
             this.c1 = c1;
@@ -108,7 +108,7 @@ public class ParticleSwarm {
     public FeedForwardNet[] lBest;
     public double gBestError;
 
-    public ParticleSwarm(int populationSize, DataC[] trainingData, int[] layers, boolean isClassification) {
+    public ParticleSwarm(int populationSize, DataC[] trainingData, DataStore store, int[] layers, boolean isClassification) {
         particles = new Particle[populationSize];
         gBestError = Double.POSITIVE_INFINITY;
         double w = 0.1;
@@ -117,12 +117,12 @@ public class ParticleSwarm {
 
         lBest = new FeedForwardNet[populationSize / 2];
         for(int i= 0; i< lBest.length; i++) {
-            lBest[i] = new FeedForwardNet(trainingData, layers, isClassification);
+            lBest[i] = new FeedForwardNet(trainingData, store, layers, isClassification);
         }
 
         int local = (int)(Math.random() * (lBest.length-1));
         for(int i= 0; i< populationSize; i++) {
-            particles[i] = new Particle(trainingData, layers, isClassification, w, c1, c2, local);
+            particles[i] = new Particle(trainingData, store, layers, isClassification, w, c1, c2, local);
         }
     }
 